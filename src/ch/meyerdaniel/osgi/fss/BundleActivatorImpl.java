@@ -1,30 +1,112 @@
 package ch.meyerdaniel.osgi.fss;
 
+import java.text.MessageFormat;
+
 import org.osgi.framework.BundleActivator;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.ServiceRegistration;
 import org.osgi.util.tracker.ServiceTracker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import ch.meyerdaniel.osgi.fss.api.AsyncFileService;
 import ch.meyerdaniel.osgi.fss.api.FileService;
+import ch.meyerdaniel.osgi.fss.service.AsyncFileServiceImpl;
 import ch.meyerdaniel.osgi.fss.service.FileServiceImpl;
+import ch.meyerdaniel.osgi.fss.service.intern.ThreadPools;
 import ch.meyerdaniel.osgi.fss.service.intern.WatchServiceController;
+import ch.meyerdaniel.osgi.fss.util.XMLUtil;
 
 public class BundleActivatorImpl implements BundleActivator {
 
+	private static final Logger log = LoggerFactory.getLogger(BundleActivatorImpl.class);
+
+	/**
+	 * Framework property for the number of threads of the asynchronous file
+	 * service.
+	 */
+	public static final String ASYNC_THREADS_PROPERTY = "ch.meyerdaniel.osgi.fss.async.threads";
+
+	/**
+	 * Framework property for the delay in milliseconds that is used for
+	 * coalescing writes to the same file.
+	 */
+	public static final String WRITE_DELAY_PROPERTY = "ch.meyerdaniel.osgi.fss.write.delay";
+
 	private ServiceTracker managedServiceTracker;
 	private WatchServiceController watchController;
 	private ServiceRegistration fileServiceRegistration;
+	private FileServiceImpl fileService;
+	private AsyncFileServiceImpl asyncFileService;
+	private ServiceRegistration asyncFileServiceRegistration;
 
 	@Override
 	public void start(BundleContext context) throws Exception {
-		FileService fileService = new FileServiceImpl();
-		watchController = new WatchServiceController(context, fileService);
-		fileServiceRegistration = context.registerService(FileService.class.getName(), fileService, null);
+		/* Read the properties first, so an invalid value cannot leave started threads behind */
+		int threads = (int) getLongProperty(context, ASYNC_THREADS_PROPERTY, Runtime.getRuntime().availableProcessors(), 1);
+		long writeDelay = getLongProperty(context, WRITE_DELAY_PROPERTY, 0, 0);
+
+		try {
+			fileService = new FileServiceImpl(writeDelay);
+			watchController = new WatchServiceController(context, fileService);
+			fileServiceRegistration = context.registerService(FileService.class.getName(), fileService, null);
+
+			asyncFileService = new AsyncFileServiceImpl(fileService, ThreadPools.newBoundedExecutor("fss-async", threads, 0));
+			asyncFileServiceRegistration = context.registerService(AsyncFileService.class.getName(), asyncFileService, null);
+		} catch (Throwable e) {
+			/* Stop the threads of the components that were already created */
+			shutdown();
+			throw e;
+		}
 	}
 
 	@Override
 	public void stop(BundleContext context) throws Exception {
-		watchController.shutdown();
-		fileServiceRegistration.unregister();
+		shutdown();
+	}
+
+	/**
+	 * Unregisters the services and shuts down the components. The components
+	 * that were not created are skipped, so this method can be used after a
+	 * failed start.
+	 */
+	private void shutdown() {
+		if (watchController != null) {
+			watchController.shutdown();
+			watchController = null;
+		}
+		if (asyncFileServiceRegistration != null) {
+			asyncFileServiceRegistration.unregister();
+			asyncFileServiceRegistration = null;
+		}
+		if (asyncFileService != null) {
+			asyncFileService.shutdown();
+			asyncFileService = null;
+		}
+		if (fileServiceRegistration != null) {
+			fileServiceRegistration.unregister();
+			fileServiceRegistration = null;
+		}
+		if (fileService != null) {
+			fileService.shutdown();
+			fileService = null;
+		}
+		XMLUtil.clear();
+	}
+
+	private static long getLongProperty(BundleContext context, String key, long defaultValue, long minimum) {
+		String value = context.getProperty(key);
+		if (value != null) {
+			try {
+				long parsed = Long.parseLong(value.trim());
+				if (parsed >= minimum) {
+					return parsed;
+				}
+			} catch (NumberFormatException e) {
+				// fall through
+			}
+			log.warn(MessageFormat.format("Invalid value {0} for property {1}, using {2}.", value, key, defaultValue));
+		}
+		return defaultValue;
 	}
 }
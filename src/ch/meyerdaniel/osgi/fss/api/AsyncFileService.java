@@ -0,0 +1,122 @@
+package ch.meyerdaniel.osgi.fss.api;
+
+import java.nio.channels.CompletionHandler;
+import java.nio.file.Path;
+import java.util.Properties;
+import java.util.concurrent.Future;
+
+import org.w3c.dom.Document;
+
+/**
+ * This interface describes the asynchronous variant of {@link FileService}.
+ * None of the methods blocks the caller. Each operation is offered in the two
+ * forms known from {@link java.nio.channels.AsynchronousFileChannel}: one
+ * returns a {@link Future}, the other one notifies a
+ * {@link CompletionHandler}.
+ * 
+ * @author Daniel Meyer
+ * 
+ */
+public interface AsyncFileService {
+
+	/**
+	 * Reads the specified property file.
+	 * 
+	 * @param file
+	 *            Any property file.
+	 * @return A future of the properties of the specified file.
+	 */
+	public Future<Properties> readProperties(Path file);
+
+	/**
+	 * Reads the specified property file.
+	 * 
+	 * @param file
+	 *            Any property file.
+	 * @param attachment
+	 *            The object to attach to the operation, can be
+	 *            <code>null</code>.
+	 * @param handler
+	 *            The handler that is notified about the result.
+	 */
+	public <A> void readProperties(Path file, A attachment, CompletionHandler<Properties, ? super A> handler);
+
+	/**
+	 * Stores the specified properties. If the file already exists it will be
+	 * overridden.
+	 * 
+	 * @param file
+	 *            The property file.
+	 * @param properties
+	 *            The properties to store.
+	 * @return A future that completes as soon as the file is written.
+	 */
+	public Future<Void> storeProperties(Path file, Properties properties);
+
+	/**
+	 * Stores the specified properties. If the file already exists it will be
+	 * overridden.
+	 * 
+	 * @param file
+	 *            The property file.
+	 * @param properties
+	 *            The properties to store.
+	 * @param attachment
+	 *            The object to attach to the operation, can be
+	 *            <code>null</code>.
+	 * @param handler
+	 *            The handler that is notified about the result.
+	 */
+	public <A> void storeProperties(Path file, Properties properties, A attachment, CompletionHandler<Void, ? super A> handler);
+
+	/**
+	 * Reads the specified XML file.
+	 * 
+	 * @param file
+	 *            Any XML file.
+	 * @return A future of the document of the specified file.
+	 */
+	public Future<Document> readXMLFile(Path file);
+
+	/**
+	 * Reads the specified XML file.
+	 * 
+	 * @param file
+	 *            Any XML file.
+	 * @param attachment
+	 *            The object to attach to the operation, can be
+	 *            <code>null</code>.
+	 * @param handler
+	 *            The handler that is notified about the result.
+	 */
+	public <A> void readXMLFile(Path file, A attachment, CompletionHandler<Document, ? super A> handler);
+
+	/**
+	 * Stores the specified document as XML. If the file already exists it will
+	 * be overridden.
+	 * 
+	 * @param file
+	 *            The XML file.
+	 * @param document
+	 *            The document.
+	 * @return A future that completes as soon as the file is written.
+	 */
+	public Future<Void> createXMLFile(Path file, Document document);
+
+	/**
+	 * Stores the specified document as XML. If the file already exists it will
+	 * be overridden.
+	 * 
+	 * @param file
+	 *            The XML file.
+	 * @param document
+	 *            The document.
+	 * @param attachment
+	 *            The object to attach to the operation, can be
+	 *            <code>null</code>.
+	 * @param handler
+	 *            The handler that is notified about the result.
+	 */
+	public <A> void createXMLFile(Path file, Document document, A attachment, CompletionHandler<Void, ? super A> handler);
+
+}
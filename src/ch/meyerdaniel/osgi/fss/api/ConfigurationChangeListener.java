@@ -0,0 +1,36 @@
+package ch.meyerdaniel.osgi.fss.api;
+
+import java.util.Dictionary;
+import java.util.Set;
+
+import org.osgi.service.cm.ConfigurationException;
+import org.osgi.service.cm.ManagedService;
+
+/**
+ * This interface can be implemented by a {@link ManagedService} that wants
+ * to receive only the changed entries of its configuration. The first
+ * configuration and deleted configurations are still delivered by
+ * {@link ManagedService#updated(Dictionary)}. Changes that only touch the
+ * entry <code>lastmodifiedtime</code> are not delivered at all.
+ * 
+ * @author Daniel Meyer
+ */
+public interface ConfigurationChangeListener {
+
+	/**
+	 * Is called instead of {@link ManagedService#updated(Dictionary)} if an
+	 * already delivered configuration changed.
+	 * 
+	 * @param pid
+	 *            The service pid of the configuration.
+	 * @param changed
+	 *            The added and modified entries, including the new
+	 *            <code>lastmodifiedtime</code>.
+	 * @param removedKeys
+	 *            The keys of the removed entries.
+	 * @throws ConfigurationException
+	 *             If the changed configuration is invalid.
+	 */
+	public void configurationChanged(String pid, Dictionary<String, ?> changed, Set<String> removedKeys) throws ConfigurationException;
+
+}
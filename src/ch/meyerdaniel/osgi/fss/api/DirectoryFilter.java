@@ -0,0 +1,37 @@
+package ch.meyerdaniel.osgi.fss.api;
+
+import java.nio.file.Path;
+
+import ch.meyerdaniel.osgi.fss.filter.DefaultFileFilter;
+import ch.meyerdaniel.osgi.fss.service.intern.ConfigurableWatchService;
+
+/**
+ * This interface extends {@link FileFilter} with decisions about directories.
+ * A {@link ConfigurableWatchService} neither watches nor walks directories
+ * that are skipped by its filter, including their sub directories.
+ * 
+ * @author Daniel Meyer
+ */
+public interface DirectoryFilter extends FileFilter {
+
+	/**
+	 * Test whether the specified directory and its sub directories should be
+	 * watched or not. The root directory is always watched.
+	 * 
+	 * @param dir
+	 *            Any directory below the root path.
+	 * @return <code>true</code> if the directory should be watched.
+	 */
+	public boolean acceptDirectory(Path dir);
+
+	/**
+	 * Adds a pattern for directories that should be skipped.
+	 * 
+	 * See {@link DefaultFileFilter} which patterns are supported.
+	 * 
+	 * @param directoryPattern
+	 *            A specific directory pattern.
+	 */
+	public void addExcludedDirectoryPattern(String directoryPattern);
+
+}
@@ -0,0 +1,76 @@
+package ch.meyerdaniel.osgi.fss.api;
+
+import java.nio.file.Path;
+
+/**
+ * This class holds the outcome of reading one file of a bulk read, either the
+ * parsed content or the exception that occurred.
+ * 
+ * @author Daniel Meyer
+ * 
+ * @param <T>
+ *            The type of the parsed content.
+ */
+public final class FileResult<T> {
+
+	private final Path file;
+	private final T value;
+	private final Exception exception;
+
+	private FileResult(Path file, T value, Exception exception) {
+		this.file = file;
+		this.value = value;
+		this.exception = exception;
+	}
+
+	/**
+	 * @param file
+	 *            The file that was read.
+	 * @param value
+	 *            The parsed content.
+	 * @return A successful result.
+	 */
+	public static <T> FileResult<T> success(Path file, T value) {
+		return new FileResult<>(file, value, null);
+	}
+
+	/**
+	 * @param file
+	 *            The file that could not be read.
+	 * @param exception
+	 *            The reason.
+	 * @return A failed result.
+	 */
+	public static <T> FileResult<T> failure(Path file, Exception exception) {
+		return new FileResult<>(file, null, exception);
+	}
+
+	/**
+	 * @return The file that was read.
+	 */
+	public Path getFile() {
+		return file;
+	}
+
+	/**
+	 * @return <code>true</code> if the file was read and parsed.
+	 */
+	public boolean isSuccess() {
+		return exception == null;
+	}
+
+	/**
+	 * @return The parsed content or <code>null</code> if reading failed.
+	 */
+	public T getValue() {
+		return value;
+	}
+
+	/**
+	 * @return The exception that occurred or <code>null</code> if reading
+	 *         succeeded.
+	 */
+	public Exception getException() {
+		return exception;
+	}
+}
@@ -1,9 +1,12 @@
 package ch.meyerdaniel.osgi.fss.api;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.file.FileSystem;
 import java.nio.file.Path;
 import java.nio.file.WatchService;
+import java.util.Collection;
+import java.util.Map;
 import java.util.Properties;
 
 import javax.xml.parsers.ParserConfigurationException;
@@ -11,6 +14,9 @@ import javax.xml.transform.TransformerException;
 
 import org.w3c.dom.Document;
 import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import ch.meyerdaniel.osgi.fss.filter.GlobPattern;
 
 /**
  * This interface describes features mostly used for using configuration files.
@@ -32,9 +38,24 @@ public interface FileService {
 	 */
 	public Properties readProperties(Path file) throws IOException;
 
+	/**
+	 * Reads the content of the specified file into a read-only buffer. Small
+	 * files are read with a single read operation, larger files are mapped
+	 * into memory, so their content is not copied at all.
+	 * 
+	 * @param file
+	 *            Any file.
+	 * @return A read-only buffer positioned at the start of the content.
+	 * @throws IOException
+	 *             {@link IOException}
+	 */
+	public ByteBuffer readFile(Path file) throws IOException;
+
 	/**
 	 * Stores the specified properties. If the file already exists it will be
-	 * overridden.
+	 * overridden. The file is replaced atomically. If writes are buffered,
+	 * rapid writes to the same file are coalesced and only the latest
+	 * properties are written, see {@link #flush()}.
 	 * 
 	 * @param file
 	 *            The property file.
@@ -58,9 +79,29 @@ public interface FileService {
 	 */
 	public Document readXMLFile(Path file) throws IOException, ParserConfigurationException, SAXException;
 
+	/**
+	 * Reads the specified XML file without building a document. The content is
+	 * reported to the specified handler while the file is read, so large files
+	 * are processed in nearly constant memory.
+	 * 
+	 * @param file
+	 *            Any XML file.
+	 * @param handler
+	 *            The handler that receives the SAX events.
+	 * @throws IOException
+	 *             {@link IOException}
+	 * @throws ParserConfigurationException
+	 *             {@link ParserConfigurationException}
+	 * @throws SAXException
+	 *             {@link SAXException}
+	 */
+	public void readXMLFile(Path file, DefaultHandler handler) throws IOException, ParserConfigurationException, SAXException;
+
 	/**
 	 * Stores the specified document as XML. If the file already exists it will
-	 * be overridden.
+	 * be overridden. The file is replaced atomically. If writes are buffered,
+	 * rapid writes to the same file are coalesced and only the latest document
+	 * is written, see {@link #flush()}.
 	 * 
 	 * @param file
 	 *            The XML file.
@@ -73,6 +114,76 @@ public interface FileService {
 	 */
 	public void createXMLFile(Path file, Document document) throws IOException, TransformerException;
 
+	/**
+	 * Writes all buffered properties and documents immediately.
+	 * 
+	 * @throws IOException
+	 *             {@link IOException}
+	 */
+	public void flush() throws IOException;
+
+	/**
+	 * Reads the specified property files in parallel.
+	 * 
+	 * @param files
+	 *            Any property files.
+	 * @return The result for each file in the order of the specified files.
+	 *         Failures are reported per file.
+	 * @throws InterruptedException
+	 *             If the caller is interrupted while waiting.
+	 */
+	public Map<Path, FileResult<Properties>> readAllProperties(Collection<Path> files) throws InterruptedException;
+
+	/**
+	 * Reads all property files below the specified directory that match the
+	 * specified glob pattern in parallel.
+	 * 
+	 * See {@link GlobPattern} which patterns are supported.
+	 * 
+	 * @param directory
+	 *            The directory to search.
+	 * @param glob
+	 *            A glob pattern relative to the directory, e.g.
+	 *            <code>**&#47;*.cfg</code>.
+	 * @return The result for each matching file ordered by path.
+	 * @throws IOException
+	 *             If the directory cannot be searched.
+	 * @throws InterruptedException
+	 *             If the caller is interrupted while waiting.
+	 */
+	public Map<Path, FileResult<Properties>> readAllProperties(Path directory, String glob) throws IOException, InterruptedException;
+
+	/**
+	 * Reads the specified XML files in parallel.
+	 * 
+	 * @param files
+	 *            Any XML files.
+	 * @return The result for each file in the order of the specified files.
+	 *         Failures are reported per file.
+	 * @throws InterruptedException
+	 *             If the caller is interrupted while waiting.
+	 */
+	public Map<Path, FileResult<Document>> readAllXMLFiles(Collection<Path> files) throws InterruptedException;
+
+	/**
+	 * Reads all XML files below the specified directory that match the
+	 * specified glob pattern in parallel.
+	 * 
+	 * See {@link GlobPattern} which patterns are supported.
+	 * 
+	 * @param directory
+	 *            The directory to search.
+	 * @param glob
+	 *            A glob pattern relative to the directory, e.g.
+	 *            <code>**&#47;*.xml</code>.
+	 * @return The result for each matching file ordered by path.
+	 * @throws IOException
+	 *             If the directory cannot be searched.
+	 * @throws InterruptedException
+	 *             If the caller is interrupted while waiting.
+	 */
+	public Map<Path, FileResult<Document>> readAllXMLFiles(Path directory, String glob) throws IOException, InterruptedException;
+
 	/**
 	 * Returns the default file system.
 	 * 
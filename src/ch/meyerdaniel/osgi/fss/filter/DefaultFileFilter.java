@@ -1,14 +1,16 @@
 package ch.meyerdaniel.osgi.fss.filter;
 
+import java.io.File;
 import java.nio.file.Path;
-import java.util.HashSet;
+import java.util.Arrays;
 
-import ch.meyerdaniel.osgi.fss.api.FileFilter;
+import ch.meyerdaniel.osgi.fss.api.DirectoryFilter;
 
 /**
  * This class is used to decide whether a file will be included for further
- * processing or not. The default implementation supports recursive pattern
- * matches.
+ * processing or not. The default implementation supports glob patterns that
+ * are matched against the path relative to the root path, see
+ * {@link GlobPattern} for the supported syntax.
  * 
  * <p>
  * <b>Example:</b></br>
@@ -17,56 +19,90 @@ import ch.meyerdaniel.osgi.fss.api.FileFilter;
  * <code>**&#47;*.*</code> Any files.</br> <code>**&#47;*.xml</code> Any files
  * ending with <code>xml</code>.</br> <code>*.xml</code> Any files in the root
  * directory ending with <code>xml</code>.</br>
+ * <code>conf&#47;**&#47;*.{cfg,properties}</code> Any files below the
+ * directory <code>conf</code> ending with <code>cfg</code> or
+ * <code>properties</code>.</br>
+ * 
+ * Directories are skipped if they match one of the excluded directory
+ * patterns, e.g. <code>**&#47;.git</code>, or if none of the file patterns
+ * can match below the root directory.
  * 
  * 
  * @author Daniel Meyer
  */
-public class DefaultFileFilter implements FileFilter {
+public class DefaultFileFilter implements DirectoryFilter {
 
-	private final HashSet<String> recursiveFilePatterns = new HashSet<>();
-	private final HashSet<String> nonRecursiveFilePatterns = new HashSet<>();
-	private Path rootPath;
+	private volatile GlobPattern[] filePatterns = new GlobPattern[0];
+	private volatile GlobPattern[] excludedDirectoryPatterns = new GlobPattern[0];
+	private volatile boolean recursive;
+	private volatile String rootPath;
 
 	@Override
 	public boolean accept(Path file) {
-		int lastIndex = file.getFileName().toString().lastIndexOf(".");
-		if (lastIndex != -1) {
-			String extension = file.getFileName().toString().substring(lastIndex + 1);
-			if (recursiveFilePatterns.contains("*") || recursiveFilePatterns.contains(extension)) {
+		String path = file.toString();
+		int start = getRelativeStart(path);
+		for (GlobPattern filePattern : filePatterns) {
+			if (filePattern.matches(path, start, path.length())) {
 				return true;
-			} else if (/* The file is in the root directory */file.getParent().equals(rootPath)) {
-				return nonRecursiveFilePatterns.contains("*") || nonRecursiveFilePatterns.contains(extension);
 			}
 		}
 		return false;
 	}
 
 	@Override
-	public void addFilePattern(String filePattern) {
-		if (filePattern.startsWith("**/*.")) {
-			if (filePattern.equals("**/*.*")) {
-				recursiveFilePatterns.clear();
-			}
-			if (!recursiveFilePatterns.contains("*.*")) {
-				recursiveFilePatterns.add(filePattern.substring(5));
-			}
-		} else if (filePattern.startsWith("*.")) {
-			if (filePattern.equals("*.*")) {
-				nonRecursiveFilePatterns.clear();
-			}
-			if (!nonRecursiveFilePatterns.contains("*.*")) {
-				nonRecursiveFilePatterns.add(filePattern.substring(2));
+	public boolean acceptDirectory(Path dir) {
+		if (!recursive) {
+			return false;
+		}
+		String path = dir.toString();
+		int start = getRelativeStart(path);
+		for (GlobPattern directoryPattern : excludedDirectoryPatterns) {
+			if (directoryPattern.matches(path, start, path.length())) {
+				return false;
 			}
 		}
-		/**
-		 * Patterns in the recursive collection have higher severity than the
-		 * others.
-		 */
-		nonRecursiveFilePatterns.removeAll(recursiveFilePatterns);
+		return true;
+	}
+
+	/**
+	 * Returns the index of the first character after the root path or
+	 * <code>0</code> if the path is not located below the root path.
+	 */
+	private int getRelativeStart(String path) {
+		String root = rootPath;
+		if (root == null || root.isEmpty() || !path.startsWith(root)) {
+			return 0;
+		}
+		if (isSeparator(root.charAt(root.length() - 1))) {
+			return root.length();
+		}
+		if (path.length() > root.length() && isSeparator(path.charAt(root.length()))) {
+			return root.length() + 1;
+		}
+		return 0;
+	}
+
+	private static boolean isSeparator(char c) {
+		return c == '/' || c == File.separatorChar;
+	}
+
+	@Override
+	public synchronized void addFilePattern(String filePattern) {
+		GlobPattern[] patterns = Arrays.copyOf(filePatterns, filePatterns.length + 1);
+		patterns[patterns.length - 1] = GlobPattern.compile(filePattern);
+		filePatterns = patterns;
+		recursive |= patterns[patterns.length - 1].isRecursive();
+	}
+
+	@Override
+	public synchronized void addExcludedDirectoryPattern(String directoryPattern) {
+		GlobPattern[] patterns = Arrays.copyOf(excludedDirectoryPatterns, excludedDirectoryPatterns.length + 1);
+		patterns[patterns.length - 1] = GlobPattern.compile(directoryPattern);
+		excludedDirectoryPatterns = patterns;
 	}
 
 	@Override
 	public void setRootPath(Path rootPath) {
-		this.rootPath = rootPath;
+		this.rootPath = rootPath == null ? null : rootPath.toString();
 	}
 }
@@ -0,0 +1,353 @@
+package ch.meyerdaniel.osgi.fss.filter;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class is a compiled glob pattern. The pattern is compiled once and
+ * paths are tested without creating any objects.
+ *
+ * <p>
+ * <b>Syntax:</b></br>
+ *
+ * <code>*</code> Any characters within a directory.</br> <code>**</code> Any
+ * characters across directories.</br> <code>**&#47;</code> Zero or more
+ * directories.</br> <code>?</code> Exactly one character within a
+ * directory.</br> <code>[abc]</code>, <code>[a-z]</code>, <code>[!a-z]</code>
+ * One character of (or not of) the class.</br> <code>{a,b}</code> One of the
+ * comma separated alternatives, which may be nested.</br> <code>\</code>
+ * Escapes the next character.</br>
+ *
+ * Paths are expected to be relative to the root of the filter and both
+ * <code>/</code> and the separator of the platform are accepted.
+ *
+ * @author Daniel Meyer
+ */
+public final class GlobPattern {
+
+	private static final int LITERAL = 0;
+	private static final int ANY = 1;
+	private static final int STAR = 2;
+	private static final int GLOBSTAR = 3;
+	private static final int GLOBSTAR_DIRECTORIES = 4;
+	private static final int CLASS = 5;
+
+	private final String glob;
+
+	private final Program[] alternatives;
+
+	private GlobPattern(String glob, Program[] alternatives) {
+		this.glob = glob;
+		this.alternatives = alternatives;
+	}
+
+	/**
+	 * Compiles the specified glob pattern.
+	 *
+	 * @param glob
+	 *            Any glob pattern.
+	 * @return The compiled pattern.
+	 * @throws IllegalArgumentException
+	 *             If the pattern is malformed.
+	 */
+	public static GlobPattern compile(String glob) {
+		List<String> expanded = new ArrayList<>();
+		expandBraces(glob, expanded);
+		Program[] alternatives = new Program[expanded.size()];
+		for (int i = 0; i < alternatives.length; i++) {
+			alternatives[i] = Program.compile(expanded.get(i), glob);
+		}
+		return new GlobPattern(glob, alternatives);
+	}
+
+	/**
+	 * Tests whether the specified path matches this pattern.
+	 *
+	 * @param path
+	 *            Any relative path.
+	 * @return <code>true</code> if the path matches.
+	 */
+	public boolean matches(CharSequence path) {
+		return matches(path, 0, path.length());
+	}
+
+	/**
+	 * Tests whether the specified region of a path matches this pattern.
+	 *
+	 * @param path
+	 *            Any path.
+	 * @param start
+	 *            The index of the first character of the relative path.
+	 * @param end
+	 *            The index after the last character of the relative path.
+	 * @return <code>true</code> if the region matches.
+	 */
+	public boolean matches(CharSequence path, int start, int end) {
+		for (Program program : alternatives) {
+			if (program.matchesSuffix(path, start, end) && program.matches(0, path, start, end)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return <code>true</code> if this pattern can match paths in sub
+	 *         directories.
+	 */
+	public boolean isRecursive() {
+		for (Program program : alternatives) {
+			if (program.recursive) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public String toString() {
+		return glob;
+	}
+
+	private static boolean isSeparator(char c) {
+		return c == '/' || c == File.separatorChar;
+	}
+
+	private static void expandBraces(String glob, List<String> result) {
+		int open = -1;
+		int depth = 0;
+		boolean inClass = false;
+		List<Integer> commas = new ArrayList<>();
+
+		for (int i = 0; i < glob.length(); i++) {
+			char c = glob.charAt(i);
+			if (c == '\\') {
+				i++;
+			} else if (inClass) {
+				inClass = c != ']';
+			} else if (c == '[') {
+				inClass = true;
+			} else if (c == '{') {
+				if (depth++ == 0) {
+					open = i;
+				}
+			} else if (c == ',' && depth == 1) {
+				commas.add(i);
+			} else if (c == '}' && depth > 0 && --depth == 0) {
+				String prefix = glob.substring(0, open);
+				String suffix = glob.substring(i + 1);
+				int from = open + 1;
+				for (int comma : commas) {
+					expandBraces(prefix + glob.substring(from, comma) + suffix, result);
+					from = comma + 1;
+				}
+				expandBraces(prefix + glob.substring(from, i) + suffix, result);
+				return;
+			}
+		}
+		if (depth != 0) {
+			throw new IllegalArgumentException("Missing '}' in glob pattern " + glob);
+		}
+		result.add(glob);
+	}
+
+	/**
+	 * A glob without braces compiled into a sequence of instructions.
+	 */
+	private static final class Program {
+
+		private final int[] operations;
+		private final char[] literals;
+		private final CharClass[] classes;
+		private final char[] suffix;
+		private final boolean recursive;
+
+		private Program(int[] operations, char[] literals, CharClass[] classes, boolean recursive) {
+			this.operations = operations;
+			this.literals = literals;
+			this.classes = classes;
+			this.recursive = recursive;
+
+			int length = 0;
+			for (int i = operations.length - 1; i >= 0 && operations[i] == LITERAL && !isSeparator(literals[i]); i--) {
+				length++;
+			}
+			suffix = new char[length];
+			for (int i = 0; i < length; i++) {
+				suffix[i] = literals[operations.length - length + i];
+			}
+		}
+
+		private static Program compile(String glob, String original) {
+			int[] operations = new int[glob.length()];
+			char[] literals = new char[glob.length()];
+			CharClass[] classes = new CharClass[glob.length()];
+			boolean recursive = false;
+			int count = 0;
+
+			for (int i = 0; i < glob.length(); i++) {
+				char c = glob.charAt(i);
+				switch (c) {
+				case '\\':
+					if (++i == glob.length()) {
+						throw new IllegalArgumentException("Dangling '\\' in glob pattern " + original);
+					}
+					literals[count] = glob.charAt(i);
+					operations[count++] = LITERAL;
+					break;
+				case '?':
+					operations[count++] = ANY;
+					break;
+				case '*':
+					if (i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+						i++;
+						recursive = true;
+						if (i + 1 < glob.length() && glob.charAt(i + 1) == '/' && (i == 1 || glob.charAt(i - 2) == '/')) {
+							i++;
+							operations[count++] = GLOBSTAR_DIRECTORIES;
+						} else {
+							operations[count++] = GLOBSTAR;
+						}
+					} else if (count == 0 || operations[count - 1] != STAR) {
+						operations[count++] = STAR;
+					}
+					break;
+				case '[':
+					int close = glob.indexOf(']', i + 2);
+					if (close == -1) {
+						throw new IllegalArgumentException("Missing ']' in glob pattern " + original);
+					}
+					classes[count] = CharClass.compile(glob.substring(i + 1, close));
+					operations[count++] = CLASS;
+					i = close;
+					break;
+				default:
+					if (c == '/') {
+						recursive = true;
+					}
+					literals[count] = c;
+					operations[count++] = LITERAL;
+				}
+			}
+
+			int[] compactOperations = new int[count];
+			char[] compactLiterals = new char[count];
+			CharClass[] compactClasses = new CharClass[count];
+			System.arraycopy(operations, 0, compactOperations, 0, count);
+			System.arraycopy(literals, 0, compactLiterals, 0, count);
+			System.arraycopy(classes, 0, compactClasses, 0, count);
+			return new Program(compactOperations, compactLiterals, compactClasses, recursive);
+		}
+
+		private boolean matchesSuffix(CharSequence path, int start, int end) {
+			if (end - start < suffix.length) {
+				return false;
+			}
+			for (int i = suffix.length - 1, k = end - 1; i >= 0; i--, k--) {
+				if (path.charAt(k) != suffix[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private boolean matches(int operation, CharSequence path, int index, int end) {
+			while (operation < operations.length) {
+				switch (operations[operation]) {
+				case LITERAL:
+					if (index == end) {
+						return false;
+					}
+					char c = path.charAt(index);
+					if (c != literals[operation] && !(isSeparator(c) && isSeparator(literals[operation]))) {
+						return false;
+					}
+					break;
+				case ANY:
+					if (index == end || isSeparator(path.charAt(index))) {
+						return false;
+					}
+					break;
+				case CLASS:
+					if (index == end || isSeparator(path.charAt(index)) || !classes[operation].matches(path.charAt(index))) {
+						return false;
+					}
+					break;
+				case STAR:
+					for (int k = index;; k++) {
+						if (matches(operation + 1, path, k, end)) {
+							return true;
+						}
+						if (k == end || isSeparator(path.charAt(k))) {
+							return false;
+						}
+					}
+				case GLOBSTAR:
+					for (int k = index; k <= end; k++) {
+						if (matches(operation + 1, path, k, end)) {
+							return true;
+						}
+					}
+					return false;
+				case GLOBSTAR_DIRECTORIES:
+					if (matches(operation + 1, path, index, end)) {
+						return true;
+					}
+					for (int k = index; k < end; k++) {
+						if (isSeparator(path.charAt(k)) && matches(operation + 1, path, k + 1, end)) {
+							return true;
+						}
+					}
+					return false;
+				default:
+					throw new IllegalStateException();
+				}
+				operation++;
+				index++;
+			}
+			return index == end;
+		}
+	}
+
+	/**
+	 * A character class like <code>[a-z0-9]</code> or <code>[!.]</code>.
+	 */
+	private static final class CharClass {
+
+		private final boolean negated;
+		private final char[] ranges;
+
+		private CharClass(boolean negated, char[] ranges) {
+			this.negated = negated;
+			this.ranges = ranges;
+		}
+
+		private static CharClass compile(String content) {
+			boolean negated = content.startsWith("!") || content.startsWith("^");
+			int i = negated ? 1 : 0;
+			StringBuilder ranges = new StringBuilder();
+			while (i < content.length()) {
+				char from = content.charAt(i);
+				char to = from;
+				if (i + 2 < content.length() && content.charAt(i + 1) == '-') {
+					to = content.charAt(i + 2);
+					i += 3;
+				} else {
+					i++;
+				}
+				ranges.append(from).append(to);
+			}
+			return new CharClass(negated, ranges.toString().toCharArray());
+		}
+
+		private boolean matches(char c) {
+			for (int i = 0; i < ranges.length; i += 2) {
+				if (c >= ranges[i] && c <= ranges[i + 1]) {
+					return !negated;
+				}
+			}
+			return negated;
+		}
+	}
+}
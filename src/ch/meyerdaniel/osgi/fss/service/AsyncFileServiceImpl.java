@@ -0,0 +1,213 @@
+package ch.meyerdaniel.osgi.fss.service;
+
+import static java.nio.file.StandardOpenOption.READ;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.Path;
+import java.text.MessageFormat;
+import java.util.EnumSet;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+
+import ch.meyerdaniel.osgi.fss.api.AsyncFileService;
+
+/**
+ * This class implements {@link AsyncFileService}. Files are read with
+ * {@link AsynchronousFileChannel}s, writes go through the write-behind queue
+ * of the {@link FileServiceImpl}, so they are atomic like the synchronous
+ * ones. Reading, parsing and serializing take place in threads of the
+ * specified executor, write handlers are notified by the thread that wrote
+ * the file.
+ * 
+ * @author Daniel Meyer
+ */
+public class AsyncFileServiceImpl implements AsyncFileService {
+
+	private static final Logger log = LoggerFactory.getLogger(AsyncFileServiceImpl.class);
+
+	private final FileServiceImpl fileService;
+
+	private final ExecutorService executor;
+
+	/**
+	 * @param fileService
+	 *            Is used for parsing and serializing the content.
+	 * @param executor
+	 *            Runs the I/O operations and the handlers.
+	 */
+	public AsyncFileServiceImpl(FileServiceImpl fileService, ExecutorService executor) {
+		this.fileService = fileService;
+		this.executor = executor;
+	}
+
+	@Override
+	public Future<Properties> readProperties(Path file) {
+		CompletionFuture<Properties> future = new CompletionFuture<>();
+		readProperties(file, null, future);
+		return future;
+	}
+
+	@Override
+	public <A> void readProperties(Path file, A attachment, CompletionHandler<Properties, ? super A> handler) {
+		read(file, new Parser<Properties>() {
+
+			@Override
+			public Properties parse(ByteBuffer content) throws Exception {
+				return fileService.parseProperties(content);
+			}
+		}, attachment, handler);
+	}
+
+	@Override
+	public Future<Void> storeProperties(Path file, Properties properties) {
+		CompletionFuture<Void> future = new CompletionFuture<>();
+		storeProperties(file, properties, null, future);
+		return future;
+	}
+
+	@Override
+	public <A> void storeProperties(Path file, final Properties properties, A attachment, CompletionHandler<Void, ? super A> handler) {
+		write(file, new Serializer() {
+
+			@Override
+			public byte[] serialize() throws Exception {
+				return fileService.toByteArray(properties);
+			}
+		}, attachment, handler);
+	}
+
+	@Override
+	public Future<Document> readXMLFile(Path file) {
+		CompletionFuture<Document> future = new CompletionFuture<>();
+		readXMLFile(file, null, future);
+		return future;
+	}
+
+	@Override
+	public <A> void readXMLFile(Path file, A attachment, CompletionHandler<Document, ? super A> handler) {
+		read(file, new Parser<Document>() {
+
+			@Override
+			public Document parse(ByteBuffer content) throws Exception {
+				return fileService.parseDocument(content);
+			}
+		}, attachment, handler);
+	}
+
+	@Override
+	public Future<Void> createXMLFile(Path file, Document document) {
+		CompletionFuture<Void> future = new CompletionFuture<>();
+		createXMLFile(file, document, null, future);
+		return future;
+	}
+
+	@Override
+	public <A> void createXMLFile(Path file, final Document document, A attachment, CompletionHandler<Void, ? super A> handler) {
+		write(file, new Serializer() {
+
+			@Override
+			public byte[] serialize() throws Exception {
+				return fileService.toByteArray(document);
+			}
+		}, attachment, handler);
+	}
+
+	private <V, A> void read(final Path file, final Parser<V> parser, final A attachment, final CompletionHandler<V, ? super A> handler) {
+		try {
+			final AsynchronousFileChannel channel = AsynchronousFileChannel.open(file, EnumSet.of(READ), executor);
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE) {
+				close(channel);
+				throw new IOException(MessageFormat.format("File {0} is too large to be read into a buffer.", file));
+			}
+			final ByteBuffer buffer = ByteBuffer.allocate((int) size);
+			channel.read(buffer, 0, null, new CompletionHandler<Integer, Void>() {
+
+				@Override
+				public void completed(Integer count, Void ignore) {
+					if (count != -1 && buffer.hasRemaining()) {
+						channel.read(buffer, buffer.position(), null, this);
+						return;
+					}
+					close(channel);
+					buffer.flip();
+					V value;
+					try {
+						value = parser.parse(buffer);
+					} catch (Exception e) {
+						handler.failed(e, attachment);
+						return;
+					}
+					handler.completed(value, attachment);
+				}
+
+				@Override
+				public void failed(Throwable exc, Void ignore) {
+					close(channel);
+					handler.failed(exc, attachment);
+				}
+			});
+		} catch (IOException | RuntimeException e) {
+			handler.failed(e, attachment);
+		}
+	}
+
+	/**
+	 * Serializes the content in a thread of the executor and hands it to the
+	 * write-behind queue of the file service, so it is written atomically and
+	 * coalesced with other writes of the same file.
+	 */
+	private <A> void write(final Path file, final Serializer serializer, final A attachment, final CompletionHandler<Void, ? super A> handler) {
+		try {
+			executor.execute(new Runnable() {
+
+				@Override
+				public void run() {
+					byte[] content;
+					try {
+						content = serializer.serialize();
+					} catch (Exception e) {
+						handler.failed(e, attachment);
+						return;
+					}
+					fileService.write(file, content, attachment, handler);
+				}
+			});
+		} catch (RuntimeException e) {
+			handler.failed(e, attachment);
+		}
+	}
+
+	private static void close(AsynchronousFileChannel channel) {
+		try {
+			channel.close();
+		} catch (IOException e) {
+			log.debug("Could not close channel.", e);
+		}
+	}
+
+	/**
+	 * Stops the executor, pending operations are aborted.
+	 */
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	private interface Parser<V> {
+
+		V parse(ByteBuffer content) throws Exception;
+	}
+
+	private interface Serializer {
+
+		byte[] serialize() throws Exception;
+	}
+}
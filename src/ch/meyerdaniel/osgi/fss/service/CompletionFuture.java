@@ -0,0 +1,98 @@
+package ch.meyerdaniel.osgi.fss.service;
+
+import java.nio.channels.CompletionHandler;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A future that is completed by the completion handler of an asynchronous
+ * operation.
+ * 
+ * @author Daniel Meyer
+ */
+final class CompletionFuture<V> implements Future<V>, CompletionHandler<V, Object> {
+
+	private final CountDownLatch done = new CountDownLatch(1);
+
+	private V value;
+
+	private Throwable failure;
+
+	private boolean cancelled;
+
+	@Override
+	public void completed(V result, Object attachment) {
+		synchronized (this) {
+			if (isDone()) {
+				return;
+			}
+			value = result;
+			done.countDown();
+		}
+	}
+
+	@Override
+	public void failed(Throwable exc, Object attachment) {
+		synchronized (this) {
+			if (isDone()) {
+				return;
+			}
+			failure = exc;
+			done.countDown();
+		}
+	}
+
+	/**
+	 * Cancelling does not abort the running operation, it only completes this
+	 * future.
+	 */
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		synchronized (this) {
+			if (isDone()) {
+				return false;
+			}
+			cancelled = true;
+			done.countDown();
+			return true;
+		}
+	}
+
+	@Override
+	public synchronized boolean isCancelled() {
+		return cancelled;
+	}
+
+	@Override
+	public boolean isDone() {
+		return done.getCount() == 0;
+	}
+
+	@Override
+	public V get() throws InterruptedException, ExecutionException {
+		done.await();
+		return report();
+	}
+
+	@Override
+	public V get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+		if (!done.await(timeout, unit)) {
+			throw new TimeoutException();
+		}
+		return report();
+	}
+
+	private synchronized V report() throws ExecutionException {
+		if (cancelled) {
+			throw new CancellationException();
+		}
+		if (failure != null) {
+			throw new ExecutionException(failure);
+		}
+		return value;
+	}
+}
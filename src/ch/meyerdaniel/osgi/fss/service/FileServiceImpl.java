@@ -1,22 +1,40 @@
 package ch.meyerdaniel.osgi.fss.service;
 
-import static java.nio.file.StandardOpenOption.CREATE;
 import static java.nio.file.StandardOpenOption.READ;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
-import java.nio.channels.Channels;
+import java.nio.ByteBuffer;
+import java.nio.channels.CompletionHandler;
 import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 import java.nio.file.FileSystem;
 import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
 import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
@@ -25,53 +43,304 @@ import javax.xml.transform.stream.StreamResult;
 
 import org.w3c.dom.Document;
 import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
 
+import ch.meyerdaniel.osgi.fss.api.FileResult;
 import ch.meyerdaniel.osgi.fss.api.FileService;
+import ch.meyerdaniel.osgi.fss.filter.GlobPattern;
+import ch.meyerdaniel.osgi.fss.service.intern.ThreadPools;
+import ch.meyerdaniel.osgi.fss.service.intern.WriteBehindQueue;
+import ch.meyerdaniel.osgi.fss.util.ByteBufferInputStream;
+import ch.meyerdaniel.osgi.fss.util.ObjectPool;
 
 public class FileServiceImpl implements FileService {
 
+	/**
+	 * Files larger than this are mapped into memory instead of being read.
+	 */
+	private static final int MAPPING_THRESHOLD = 64 * 1024;
+
 	private final FileSystem fileSystem;
 
+	private final DocumentBuilderFactory documentBuilderFactory;
+
+	private final TransformerFactory transformerFactory;
+
+	private final SAXParserFactory saxParserFactory;
+
+	/**
+	 * Builders and transformers are not thread safe, so idle instances are
+	 * pooled and each call borrows its own. The pools are owned by this
+	 * service and cleared on {@link #shutdown()}.
+	 */
+	private final ObjectPool<DocumentBuilder> documentBuilders;
+
+	private final ObjectPool<Transformer> transformers;
+
+	private final ObjectPool<SAXParser> saxParsers;
+
+	private final ExecutorService bulkExecutor;
+
+	private final WriteBehindQueue writeQueue;
+
 	public FileServiceImpl() {
+		this(0);
+	}
+
+	/**
+	 * @param writeDelay
+	 *            The delay in milliseconds for coalescing writes to the same
+	 *            file, <code>0</code> writes immediately.
+	 */
+	public FileServiceImpl(long writeDelay) {
 		fileSystem = FileSystems.getDefault();
+		writeQueue = new WriteBehindQueue(writeDelay);
+		documentBuilderFactory = DocumentBuilderFactory.newInstance();
+		transformerFactory = TransformerFactory.newInstance();
+		int poolSize = 2 * Runtime.getRuntime().availableProcessors();
+		documentBuilders = new ObjectPool<>(poolSize);
+		transformers = new ObjectPool<>(poolSize);
+		saxParserFactory = SAXParserFactory.newInstance();
+		saxParsers = new ObjectPool<>(poolSize);
+		bulkExecutor = ThreadPools.newBoundedExecutor("fss-bulk", Runtime.getRuntime().availableProcessors(), 0);
+	}
+
+	private DocumentBuilder borrowDocumentBuilder() throws ParserConfigurationException {
+		DocumentBuilder documentBuilder = documentBuilders.poll();
+		if (documentBuilder == null) {
+			synchronized (documentBuilderFactory) {
+				documentBuilder = documentBuilderFactory.newDocumentBuilder();
+			}
+		}
+		return documentBuilder;
+	}
+
+	private void release(DocumentBuilder documentBuilder) {
+		documentBuilder.reset();
+		documentBuilders.release(documentBuilder);
+	}
+
+	private Transformer borrowTransformer() throws TransformerException {
+		Transformer transformer = transformers.poll();
+		if (transformer == null) {
+			synchronized (transformerFactory) {
+				transformer = transformerFactory.newTransformer();
+			}
+		}
+		return transformer;
+	}
+
+	private void release(Transformer transformer) {
+		transformer.reset();
+		transformers.release(transformer);
+	}
+
+	private SAXParser borrowSAXParser() throws ParserConfigurationException, SAXException {
+		SAXParser saxParser = saxParsers.poll();
+		if (saxParser == null) {
+			synchronized (saxParserFactory) {
+				saxParser = saxParserFactory.newSAXParser();
+			}
+		}
+		return saxParser;
+	}
+
+	private void release(SAXParser saxParser) {
+		saxParser.reset();
+		saxParsers.release(saxParser);
+	}
+
+	@Override
+	public ByteBuffer readFile(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, READ)) {
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException(MessageFormat.format("File {0} is too large to be read into a buffer.", file));
+			}
+			if (size > MAPPING_THRESHOLD) {
+				return channel.map(MapMode.READ_ONLY, 0, size);
+			}
+			ByteBuffer buffer = ByteBuffer.allocate((int) size);
+			while (buffer.hasRemaining() && channel.read(buffer) != -1) {
+				// read until the buffer is full
+			}
+			buffer.flip();
+			return buffer.asReadOnlyBuffer();
+		}
 	}
 
 	@Override
 	public Document readXMLFile(Path file) throws IOException, ParserConfigurationException, SAXException {
-		try (InputStream is = Channels.newInputStream(FileChannel.open(file, READ))) {
-			DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-			DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
-			Document doc = dBuilder.parse(is);
+		return parseDocument(readFile(file));
+	}
+
+	Document parseDocument(ByteBuffer content) throws IOException, ParserConfigurationException, SAXException {
+		DocumentBuilder documentBuilder = borrowDocumentBuilder();
+		try (InputStream is = new ByteBufferInputStream(content)) {
+			Document doc = documentBuilder.parse(is);
 			doc.getDocumentElement().normalize();
 			return doc;
+		} finally {
+			release(documentBuilder);
 		}
 	}
 
+	byte[] toByteArray(Document document) throws TransformerException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		Transformer transformer = borrowTransformer();
+		try {
+			transformer.transform(new DOMSource(document), new StreamResult(os));
+		} finally {
+			release(transformer);
+		}
+		return os.toByteArray();
+	}
+
 	@Override
-	public void createXMLFile(Path file, Document document) throws IOException, TransformerException {
-		try (OutputStream os = Channels.newOutputStream(FileChannel.open(file, CREATE))) {
-			TransformerFactory transformerFactory = TransformerFactory.newInstance();
-			Transformer transformer = transformerFactory.newTransformer();
-			DOMSource source = new DOMSource(document);
-			StreamResult result = new StreamResult(os);
-			transformer.transform(source, result);
+	public void readXMLFile(Path file, DefaultHandler handler) throws IOException, ParserConfigurationException, SAXException {
+		SAXParser saxParser = borrowSAXParser();
+		try (InputStream is = new ByteBufferInputStream(readFile(file))) {
+			saxParser.parse(is, handler);
+		} finally {
+			release(saxParser);
 		}
 	}
 
+	@Override
+	public void createXMLFile(Path file, Document document) throws IOException, TransformerException {
+		writeQueue.write(file, toByteArray(document));
+	}
+
 	@Override
 	public Properties readProperties(Path file) throws IOException {
-		try (InputStream is = Channels.newInputStream(FileChannel.open(file, READ))) {
+		return parseProperties(readFile(file));
+	}
+
+	Properties parseProperties(ByteBuffer content) throws IOException {
+		try (InputStream is = new ByteBufferInputStream(content)) {
 			Properties prop = new Properties();
 			prop.load(is);
 			return prop;
 		}
 	}
 
+	byte[] toByteArray(Properties properties) throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		properties.store(os, "");
+		return os.toByteArray();
+	}
+
 	@Override
 	public void storeProperties(Path file, Properties properies) throws IOException {
-		try (OutputStream os = Channels.newOutputStream(FileChannel.open(file, CREATE))) {
-			properies.store(os, "");
+		writeQueue.write(file, toByteArray(properies));
+	}
+
+	/**
+	 * Writes the specified content through the write-behind queue and
+	 * notifies the handler once it is written.
+	 */
+	<A> void write(Path file, byte[] content, A attachment, CompletionHandler<Void, ? super A> handler) {
+		writeQueue.write(file, content, attachment, handler);
+	}
+
+	@Override
+	public void flush() throws IOException {
+		writeQueue.flush();
+	}
+
+	@Override
+	public Map<Path, FileResult<Properties>> readAllProperties(Collection<Path> files) throws InterruptedException {
+		return readAll(files, new Reader<Properties>() {
+
+			@Override
+			public Properties read(Path file) throws Exception {
+				return readProperties(file);
+			}
+		});
+	}
+
+	@Override
+	public Map<Path, FileResult<Properties>> readAllProperties(Path directory, String glob) throws IOException, InterruptedException {
+		return readAllProperties(findFiles(directory, glob));
+	}
+
+	@Override
+	public Map<Path, FileResult<Document>> readAllXMLFiles(Collection<Path> files) throws InterruptedException {
+		return readAll(files, new Reader<Document>() {
+
+			@Override
+			public Document read(Path file) throws Exception {
+				return readXMLFile(file);
+			}
+		});
+	}
+
+	@Override
+	public Map<Path, FileResult<Document>> readAllXMLFiles(Path directory, String glob) throws IOException, InterruptedException {
+		return readAllXMLFiles(findFiles(directory, glob));
+	}
+
+	private <T> Map<Path, FileResult<T>> readAll(Collection<Path> files, final Reader<T> reader) throws InterruptedException {
+		List<Callable<FileResult<T>>> tasks = new ArrayList<>(files.size());
+		for (final Path file : files) {
+			tasks.add(new Callable<FileResult<T>>() {
+
+				@Override
+				public FileResult<T> call() {
+					try {
+						return FileResult.success(file, reader.read(file));
+					} catch (Exception e) {
+						return FileResult.failure(file, e);
+					}
+				}
+			});
 		}
+
+		Map<Path, FileResult<T>> results = new LinkedHashMap<>();
+		for (Future<FileResult<T>> future : bulkExecutor.invokeAll(tasks)) {
+			try {
+				FileResult<T> result = future.get();
+				results.put(result.getFile(), result);
+			} catch (ExecutionException e) {
+				// cannot happen, failures are part of the result
+				throw new IllegalStateException(e.getCause());
+			}
+		}
+		return results;
+	}
+
+	private List<Path> findFiles(final Path directory, String glob) throws IOException {
+		final GlobPattern pattern = GlobPattern.compile(glob);
+		final List<Path> files = new ArrayList<>();
+		Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				if (attrs.isRegularFile() && pattern.matches(directory.relativize(file).toString())) {
+					files.add(file);
+				}
+				return FileVisitResult.CONTINUE;
+			}
+		});
+		Collections.sort(files);
+		return files;
+	}
+
+	/**
+	 * Writes all pending files, stops the executor that is used for bulk reads
+	 * and drops the pooled parsers.
+	 */
+	public void shutdown() {
+		writeQueue.close();
+		bulkExecutor.shutdownNow();
+		documentBuilders.clear();
+		transformers.clear();
+		saxParsers.clear();
+	}
+
+	private interface Reader<T> {
+
+		T read(Path file) throws Exception;
 	}
 
 	@Override
@@ -0,0 +1,354 @@
+package ch.meyerdaniel.osgi.fss.service.intern;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleException;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.packageadmin.PackageAdmin;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ch.meyerdaniel.osgi.fss.util.JarUtil;
+
+/**
+ * This class installs the jars of an initial discovery as one batch. The
+ * manifests are inspected first, so that jars that are not bundles and
+ * duplicates of the same symbolic name and version are skipped. All bundles
+ * are installed next, then resolved together and finally started level by
+ * level, so that a bundle is started after the bundles it imports packages
+ * from or requires. Bundles of the same level are installed and started in
+ * parallel.
+ * 
+ * @author Daniel Meyer
+ * 
+ */
+public class BundleBatchInstaller {
+
+	private static final Logger log = LoggerFactory.getLogger(BundleBatchInstaller.class);
+
+	/**
+	 * Installs a single jar without starting it.
+	 */
+	public interface Installer {
+
+		/**
+		 * @param jar
+		 *            Any jar.
+		 * @return The newly installed or a stopped installed bundle,
+		 *         <code>null</code> if nothing has to be started.
+		 */
+		Bundle install(Path jar);
+	}
+
+	private final BundleContext context;
+
+	private final ForkJoinPool pool;
+
+	/**
+	 * @param context
+	 *            Is used for looking up the package admin.
+	 * @param pool
+	 *            Runs the parallel installs and starts.
+	 */
+	public BundleBatchInstaller(BundleContext context, ForkJoinPool pool) {
+		this.context = context;
+		this.pool = pool;
+	}
+
+	/**
+	 * Installs, resolves and starts the specified jars.
+	 * 
+	 * @param jars
+	 *            The jars of an initial discovery.
+	 * @param installer
+	 *            Installs a single jar.
+	 */
+	public void installAndStart(List<Path> jars, final Installer installer) {
+		long start = System.nanoTime();
+
+		Map<Path, Attributes> manifests = inspect(jars);
+		long inspected = System.nanoTime();
+
+		List<Path> bundleJars = new ArrayList<>(manifests.keySet());
+		List<Callable<Bundle>> installTasks = new ArrayList<>(bundleJars.size());
+		for (final Path jar : bundleJars) {
+			installTasks.add(new Callable<Bundle>() {
+
+				@Override
+				public Bundle call() {
+					return installer.install(jar);
+				}
+			});
+		}
+		Map<Bundle, Attributes> bundles = new LinkedHashMap<>();
+		List<Bundle> installedBundles = invokeAll(installTasks);
+		for (int i = 0; i < installedBundles.size(); i++) {
+			if (installedBundles.get(i) != null) {
+				bundles.put(installedBundles.get(i), manifests.get(bundleJars.get(i)));
+			}
+		}
+		long installed = System.nanoTime();
+
+		resolve(bundles.keySet());
+		long resolved = System.nanoTime();
+
+		List<List<Bundle>> levels = getStartLevels(bundles);
+		for (List<Bundle> level : levels) {
+			List<Callable<Bundle>> startTasks = new ArrayList<>(level.size());
+			for (final Bundle bundle : level) {
+				startTasks.add(new Callable<Bundle>() {
+
+					@Override
+					public Bundle call() {
+						try {
+							bundle.start();
+						} catch (BundleException e) {
+							log.error(MessageFormat.format("Could not start bundle {0}.", bundle.getLocation()), e);
+						}
+						return bundle;
+					}
+				});
+			}
+			invokeAll(startTasks);
+		}
+		long started = System.nanoTime();
+
+		log.info(MessageFormat.format("Processed {0} jars: inspected in {1} ms, installed {2} bundles in {3} ms, resolved in {4} ms, started {5} levels in {6} ms.", jars.size(), toMillis(inspected - start), bundles.size(),
+				toMillis(installed - inspected), toMillis(resolved - installed), levels.size(), toMillis(started - resolved)));
+	}
+
+	/**
+	 * Reads the manifests of the specified jars in parallel.
+	 * 
+	 * @return The main attributes of the bundles in the order of the specified
+	 *         jars, without jars that are no bundles and without duplicates.
+	 */
+	private Map<Path, Attributes> inspect(List<Path> jars) {
+		List<Callable<Attributes>> tasks = new ArrayList<>(jars.size());
+		for (final Path jar : jars) {
+			tasks.add(new Callable<Attributes>() {
+
+				@Override
+				public Attributes call() {
+					return readBundleManifest(jar);
+				}
+			});
+		}
+
+		Map<Path, Attributes> manifests = new LinkedHashMap<>();
+		Map<String, Path> identities = new HashMap<>();
+		List<Attributes> attributes = invokeAll(tasks);
+		for (int i = 0; i < attributes.size(); i++) {
+			Path jar = jars.get(i);
+			if (attributes.get(i) == null) {
+				continue;
+			}
+			String identity = getIdentity(attributes.get(i));
+			Path duplicate = identities.put(identity, jar);
+			if (duplicate != null) {
+				identities.put(identity, duplicate);
+				log.warn(MessageFormat.format("Skip jar {0}, bundle {1} is already provided by {2}.", jar, identity, duplicate));
+				continue;
+			}
+			manifests.put(jar, attributes.get(i));
+		}
+		return manifests;
+	}
+
+	/**
+	 * Reads the manifest of the specified jar.
+	 * 
+	 * @param jar
+	 *            Any jar.
+	 * @return The main attributes or <code>null</code> if the jar is no bundle
+	 *         or cannot be read.
+	 */
+	static Attributes readBundleManifest(Path jar) {
+		try {
+			Manifest manifest = JarUtil.readManifest(jar);
+			if (manifest == null || manifest.getMainAttributes().getValue(Constants.BUNDLE_SYMBOLICNAME) == null) {
+				log.info(MessageFormat.format("Skip jar {0}, it is no bundle.", jar));
+				return null;
+			}
+			return manifest.getMainAttributes();
+		} catch (IOException e) {
+			log.debug(MessageFormat.format("Could not read manifest of jar {0}.", jar), e);
+			return null;
+		}
+	}
+
+	/**
+	 * @return The symbolic name and the version of a bundle manifest.
+	 */
+	static String getIdentity(Attributes attributes) {
+		List<String> symbolicName = getNames(attributes.getValue(Constants.BUNDLE_SYMBOLICNAME));
+		String version = attributes.getValue(Constants.BUNDLE_VERSION);
+		return (symbolicName.isEmpty() ? "" : symbolicName.get(0)) + ";" + Constants.BUNDLE_VERSION + "=" + (version == null ? "0.0.0" : version.trim());
+	}
+
+	/**
+	 * @return The results in the order of the tasks, <code>null</code> for
+	 *         failed tasks.
+	 */
+	private <T> List<T> invokeAll(List<Callable<T>> tasks) {
+		List<T> results = new ArrayList<>(tasks.size());
+		try {
+			for (Future<T> future : pool.invokeAll(tasks)) {
+				try {
+					results.add(future.get());
+				} catch (ExecutionException e) {
+					log.error("", e.getCause());
+					results.add(null);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return results;
+	}
+
+	private void resolve(Collection<Bundle> bundles) {
+		if (bundles.isEmpty()) {
+			return;
+		}
+		ServiceReference reference = context.getServiceReference(PackageAdmin.class.getName());
+		if (reference == null) {
+			return;
+		}
+		try {
+			((PackageAdmin) context.getService(reference)).resolveBundles(bundles.toArray(new Bundle[bundles.size()]));
+		} finally {
+			context.ungetService(reference);
+		}
+	}
+
+	/**
+	 * Orders the specified bundles into levels by their manifests. A bundle is
+	 * placed in a level after all bundles of the batch it depends on. Bundles
+	 * of a dependency cycle are placed in the last level. Fragments are not
+	 * started at all.
+	 */
+	private static List<List<Bundle>> getStartLevels(Map<Bundle, Attributes> bundles) {
+		Map<String, Bundle> exporters = new HashMap<>();
+		Map<String, Bundle> symbolicNames = new HashMap<>();
+		List<Bundle> startable = new ArrayList<>();
+		for (Map.Entry<Bundle, Attributes> entry : bundles.entrySet()) {
+			Attributes headers = entry.getValue();
+			if (headers.getValue(Constants.FRAGMENT_HOST) != null) {
+				continue;
+			}
+			startable.add(entry.getKey());
+			for (String packageName : getNames(headers.getValue(Constants.EXPORT_PACKAGE))) {
+				exporters.put(packageName, entry.getKey());
+			}
+			for (String symbolicName : getNames(headers.getValue(Constants.BUNDLE_SYMBOLICNAME))) {
+				symbolicNames.put(symbolicName, entry.getKey());
+			}
+		}
+
+		Map<Bundle, Set<Bundle>> dependencies = new HashMap<>();
+		for (Bundle bundle : startable) {
+			Set<Bundle> bundleDependencies = new HashSet<>();
+			Attributes headers = bundles.get(bundle);
+			for (String packageName : getNames(headers.getValue(Constants.IMPORT_PACKAGE))) {
+				Bundle exporter = exporters.get(packageName);
+				if (exporter != null && exporter != bundle) {
+					bundleDependencies.add(exporter);
+				}
+			}
+			for (String symbolicName : getNames(headers.getValue(Constants.REQUIRE_BUNDLE))) {
+				Bundle required = symbolicNames.get(symbolicName);
+				if (required != null && required != bundle) {
+					bundleDependencies.add(required);
+				}
+			}
+			dependencies.put(bundle, bundleDependencies);
+		}
+
+		List<List<Bundle>> levels = new ArrayList<>();
+		Set<Bundle> done = new HashSet<>();
+		List<Bundle> remaining = new ArrayList<>(startable);
+		while (!remaining.isEmpty()) {
+			List<Bundle> level = new ArrayList<>();
+			for (Bundle bundle : remaining) {
+				if (done.containsAll(dependencies.get(bundle))) {
+					level.add(bundle);
+				}
+			}
+			if (level.isEmpty()) {
+				/* Dependency cycle, start the rest together */
+				level.addAll(remaining);
+			}
+			remaining.removeAll(level);
+			done.addAll(level);
+			levels.add(level);
+		}
+		return levels;
+	}
+
+	/**
+	 * Returns the names of the clauses of a manifest header, e.g. the package
+	 * names of <code>Import-Package</code>, ignoring attributes and directives.
+	 * A clause may start with several names, e.g. <code>a;b;version=1</code>.
+	 */
+	static List<String> getNames(String value) {
+		List<String> names = new ArrayList<>();
+		if (value == null) {
+			return names;
+		}
+		boolean quoted = false;
+		boolean inNames = true;
+		boolean parameter = false;
+		StringBuilder name = new StringBuilder();
+		for (int i = 0; i <= value.length(); i++) {
+			char c = i < value.length() ? value.charAt(i) : ',';
+			if (c == '"') {
+				quoted = !quoted;
+			} else if (!quoted && (c == ',' || c == ';')) {
+				if (inNames) {
+					/* Names end with the first attribute or directive */
+					if (parameter) {
+						inNames = false;
+					} else if (name.toString().trim().length() > 0) {
+						names.add(name.toString().trim());
+					}
+				}
+				name.setLength(0);
+				parameter = false;
+				if (c == ',') {
+					inNames = true;
+				}
+			} else if (inNames) {
+				if (c == '=') {
+					parameter = true;
+				}
+				name.append(c);
+			}
+		}
+		return names;
+	}
+
+	private static long toMillis(long nanos) {
+		return TimeUnit.NANOSECONDS.toMillis(nanos);
+	}
+}
@@ -0,0 +1,81 @@
+package ch.meyerdaniel.osgi.fss.service.intern;
+
+import java.nio.file.Path;
+import java.text.MessageFormat;
+import java.util.Locale;
+
+import org.slf4j.LoggerFactory;
+
+/**
+ * This enumeration describes how bundles found by a watcher are handed to the
+ * framework.
+ * 
+ * @author Daniel Meyer
+ * 
+ */
+public enum BundleInstallMode {
+
+	/**
+	 * The content of the jar is streamed into the framework, which stores a
+	 * copy in its cache. The file name is used as location.
+	 */
+	STREAM,
+
+	/**
+	 * The framework reads the jar from its file URL, which is used as
+	 * location.
+	 */
+	URL,
+
+	/**
+	 * The framework uses the jar in place without copying it into its cache.
+	 * The location is the file URL prefixed with <code>reference:</code>,
+	 * which is supported by Felix and Equinox.
+	 */
+	REFERENCE;
+
+	/**
+	 * Returns the bundle location of the specified jar for this mode.
+	 * 
+	 * @param jar
+	 *            Any jar file.
+	 * @return The bundle location.
+	 */
+	public String getLocation(Path jar) {
+		switch (this) {
+		case URL:
+			return jar.toAbsolutePath().normalize().toUri().toString();
+		case REFERENCE:
+			return "reference:" + jar.toAbsolutePath().normalize().toUri().toString();
+		default:
+			return jar.getFileName().toString();
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if the framework reads the jar itself.
+	 */
+	public boolean isInstalledByLocation() {
+		return this != STREAM;
+	}
+
+	/**
+	 * Parses the specified value case insensitively.
+	 * 
+	 * @param value
+	 *            The name of a mode or <code>null</code>.
+	 * @return The mode or {@link #STREAM} if the value is <code>null</code> or
+	 *         unknown.
+	 */
+	public static BundleInstallMode parse(String value) {
+		if (value == null) {
+			return STREAM;
+		}
+		try {
+			return valueOf(value.trim().toUpperCase(Locale.ENGLISH));
+		} catch (IllegalArgumentException e) {
+			LoggerFactory.getLogger(BundleInstallMode.class).warn(MessageFormat.format("Unknown bundle install mode {0}, using {1}.", value, STREAM));
+			return STREAM;
+		}
+	}
+}
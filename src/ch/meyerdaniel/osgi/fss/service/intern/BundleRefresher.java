@@ -0,0 +1,138 @@
+package ch.meyerdaniel.osgi.fss.service.intern;
+
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.packageadmin.PackageAdmin;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class collects updated and uninstalled bundles and refreshes their
+ * packages in one batch, as soon as no further bundle changed for the
+ * configured delay, but at the latest ten delays after the first change. So
+ * a deploy of many jars results in a single wiring refresh.
+ * 
+ * @author Daniel Meyer
+ * 
+ */
+public class BundleRefresher {
+
+	private static final Logger log = LoggerFactory.getLogger(BundleRefresher.class);
+
+	/**
+	 * The refresh happens at the latest this many delays after the first
+	 * pending change, so a steady stream of changes cannot postpone it
+	 * forever.
+	 */
+	private static final int MAX_DELAY_FACTOR = 10;
+
+	private final BundleContext context;
+
+	private final long delay;
+
+	private final ScheduledExecutorService scheduler;
+
+	/**
+	 * The pending bundles, the fields below are guarded by this list as well.
+	 */
+	private final List<Bundle> pendingBundles = new ArrayList<>();
+
+	private ScheduledFuture<?> pendingRefresh;
+
+	private long lastChange;
+
+	private long refreshDeadline;
+
+	/**
+	 * @param context
+	 *            Is used for looking up the package admin.
+	 * @param delay
+	 *            The delay in milliseconds after the last change.
+	 */
+	public BundleRefresher(BundleContext context, long delay) {
+		this.context = context;
+		this.delay = delay;
+		scheduler = ThreadPools.newSingleThreadScheduledExecutor("fss-refresh");
+	}
+
+	/**
+	 * Adds the specified bundle to the next refresh.
+	 * 
+	 * @param bundle
+	 *            An updated or uninstalled bundle.
+	 */
+	public void add(Bundle bundle) {
+		long now = ConfigurableWatchService.currentTimeMillis();
+		synchronized (pendingBundles) {
+			pendingBundles.add(bundle);
+			lastChange = now;
+			if (pendingRefresh == null) {
+				refreshDeadline = now + MAX_DELAY_FACTOR * delay;
+				schedule(delay);
+			}
+		}
+	}
+
+	/**
+	 * Must be called while holding the lock of the pending bundles.
+	 */
+	private void schedule(long refreshDelay) {
+		try {
+			pendingRefresh = scheduler.schedule(new Runnable() {
+
+				@Override
+				public void run() {
+					refresh();
+				}
+			}, refreshDelay, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			/* The refresher is stopped */
+			pendingRefresh = null;
+			pendingBundles.clear();
+		}
+	}
+
+	private void refresh() {
+		Bundle[] bundles;
+		synchronized (pendingBundles) {
+			long now = ConfigurableWatchService.currentTimeMillis();
+			long due = Math.min(lastChange + delay, refreshDeadline);
+			if (now < due) {
+				/* Bundles changed meanwhile, wait until they settle */
+				schedule(due - now);
+				return;
+			}
+			pendingRefresh = null;
+			bundles = pendingBundles.toArray(new Bundle[pendingBundles.size()]);
+			pendingBundles.clear();
+		}
+
+		ServiceReference reference = context.getServiceReference(PackageAdmin.class.getName());
+		if (reference == null) {
+			log.warn("Package admin is not available, packages are not refreshed.");
+			return;
+		}
+		try {
+			log.debug(MessageFormat.format("Refresh packages of {0} bundles.", bundles.length));
+			((PackageAdmin) context.getService(reference)).refreshPackages(bundles);
+		} finally {
+			context.ungetService(reference);
+		}
+	}
+
+	/**
+	 * Stops this refresher, pending bundles are not refreshed.
+	 */
+	public void shutdown() {
+		scheduler.shutdownNow();
+	}
+}
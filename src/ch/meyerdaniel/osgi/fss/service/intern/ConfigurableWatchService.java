@@ -3,28 +3,41 @@ package ch.meyerdaniel.osgi.fss.service.intern;
 import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
 import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
 import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
 
 import java.io.IOException;
+import java.nio.file.DirectoryStream;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.WatchEvent;
-import java.nio.file.WatchKey;
-import java.nio.file.WatchService;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.text.MessageFormat;
-import java.util.concurrent.Callable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import ch.meyerdaniel.osgi.fss.api.DirectoryFilter;
 import ch.meyerdaniel.osgi.fss.api.FileFilter;
 
 /**
- * This class implements the ability to configure a wrapped watch service.
+ * This class implements the ability to configure a watcher on top of a
+ * {@link WatchBackend}, either the shared {@link WatchServiceDispatcher} or a
+ * {@link PollingWatchBackend}.
+ * </p> For each watched directory a snapshot of the accepted files and their
+ * modification times is kept. If the events of a directory overflow, only
+ * this directory is rescanned and the differences to its snapshot are emitted
+ * as events.
  * 
  * @author Daniel Meyer
  * 
@@ -35,18 +48,25 @@ public class ConfigurableWatchService {
 
 	private final FileFilter fileFilter;
 	private final Path root;
-	private final WatchService watchService;
+	private final WatchBackend backend;
 
-	private final ConcurrentHashMap<WatchKey, Path> keys;
-	private WatchServiceController controller;
+	private final ConcurrentHashMap</* Directory */Path, ConcurrentHashMap</* File */Path, /* Modification time */Long>> snapshots;
+
+	private volatile WatchServiceController controller;
 
 	private final String name;
 
+	private long quietPeriod;
+
+	private boolean parallelDiscovery;
+
+	private WatchEventCoalescer coalescer;
+
 	/**
 	 * @param name
 	 *            The name of this watch service.
-	 * @param watchService
-	 *            The concrete watch service.
+	 * @param backend
+	 *            The source of the file events.
 	 * @param controller
 	 *            The controller for processing events.
 	 * @param root
@@ -54,102 +74,419 @@ public class ConfigurableWatchService {
 	 * @param fileFilter
 	 *            A concrete file filter.
 	 */
-	public ConfigurableWatchService(String name, WatchService watchService, WatchServiceController controller, Path root, FileFilter fileFilter) {
+	public ConfigurableWatchService(String name, WatchBackend backend, WatchServiceController controller, Path root, FileFilter fileFilter) {
 		log = LoggerFactory.getLogger(this.getClass().getName() + "[" + name + "]");
-		keys = new ConcurrentHashMap<>();
+		snapshots = new ConcurrentHashMap<>();
 		this.name = name;
 		this.root = root;
 		this.fileFilter = fileFilter;
-		this.watchService = watchService;
+		this.backend = backend;
 		this.controller = controller;
 		fileFilter.setRootPath(root);
 	}
 
 	/**
-	 * Initializes this watch service and returns an instance of
-	 * {@link Callable} that is coupled to this configurable watch service.
+	 * Initializes this watch service by discovering its root and registers it
+	 * at the backend.
 	 * 
-	 * @return True
 	 * @throws IOException
 	 *             Can be thrown during the discovering process.
 	 */
-	public Callable<Boolean> init() throws IOException {
+	public void init() throws IOException {
+		coalescer = new WatchEventCoalescer(quietPeriod);
 		discoverFiles(root);
+		backend.addWatcher(this);
+		log.info(MessageFormat.format("Started watch service based on configuration {0}.", name));
+	}
 
-		return new Callable<Boolean>() {
+	/**
+	 * Processes the events of the specified directory. Is called by the
+	 * dispatching thread only.
+	 * 
+	 * @param path
+	 *            A directory that was registered by this watch service.
+	 * @param events
+	 *            The events of the directory.
+	 */
+	@SuppressWarnings("unchecked")
+	void processEvents(Path path, List<WatchEvent<?>> events) {
+		for (WatchEvent<?> i : events) {
+			if (i.kind() == OVERFLOW) {
+				log.info(MessageFormat.format("Events of directory {0} overflowed, rescan it.", path));
+				rescan(path);
+				continue;
+			}
+			WatchEvent<Path> event = (WatchEvent<Path>) i;
+			WatchEvent.Kind<Path> kind = event.kind();
+			Path name = event.context();
+			Path child = path.resolve(name);
+
+			log.debug(MessageFormat.format("Event received for {0}: {1}.", child.getFileName().toString(), kind.name()));
 
-			@Override
-			public Boolean call() throws IOException {
-				log.info(MessageFormat.format("Started watch service based on configuration {0}.", name));
+			if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+				if (kind == ENTRY_CREATE && acceptDirectory(child)) {
+					try {
+						discoverFiles(child);
+					} catch (IOException e) {
+						log.error("", e);
+					}
+				}
+			} else if (fileFilter.accept(child)) {
+				if (kind == ENTRY_DELETE) {
+					forget(child);
+				} else {
+					remember(child);
+				}
+				coalescer.add(child, kind, currentTimeMillis());
+			}
+		}
+	}
 
+	/**
+	 * Compares the specified directory with its snapshot and adds the
+	 * differences to the pending events. New sub directories are discovered,
+	 * the rest of the tree is not walked. Is used after events were lost and
+	 * by the {@link PollingWatchBackend} for changed directories.
+	 * 
+	 * @param dir
+	 *            A directory that was registered by this watch service.
+	 */
+	void rescan(Path dir) {
+		ConcurrentHashMap<Path, Long> snapshot = getSnapshot(dir);
+		Map<Path, Long> current = new HashMap<>();
+		List<Path> newDirectories = new ArrayList<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+			for (Path entry : stream) {
+				BasicFileAttributes attributes;
 				try {
-					WatchKey key = null;
-					do {
-						key = watchService.take();
-						Path path = keys.get(key);
-
-						for (WatchEvent<?> i : key.pollEvents()) {
-							WatchEvent<Path> event = (WatchEvent<Path>) i;
-							WatchEvent.Kind<Path> kind = event.kind();
-							Path name = event.context();
-							Path child = path.resolve(name);
-
-							log.debug(MessageFormat.format("Event received for {0}: {1}.", child.getFileName().toString(), kind.name()));
-
-							if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
-								if (kind == ENTRY_CREATE) {
-									try {
-										discoverFiles(child);
-									} catch (IOException e) {
-										log.error("", e);
-									}
-								}
-							} else if (fileFilter.accept(child)) {
-								if (kind == ENTRY_CREATE) {
-								} else if (kind == ENTRY_MODIFY) {
-									controller.processFile(child);
-								} else if (kind == ENTRY_DELETE) {
-									controller.processDeletedFile(child);
-								}
-							}
-						}
+					attributes = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+				} catch (IOException e) {
+					continue;
+				}
+				if (attributes.isDirectory()) {
+					if (!snapshots.containsKey(entry) && acceptDirectory(entry)) {
+						newDirectories.add(entry);
+					}
+				} else if (fileFilter.accept(entry)) {
+					current.put(entry, attributes.lastModifiedTime().toMillis());
+				}
+			}
+		} catch (IOException e) {
+			log.error(MessageFormat.format("Could not rescan directory {0}.", dir), e);
+			return;
+		}
+
+		long now = currentTimeMillis();
+		int changes = 0;
+		for (Map.Entry<Path, Long> file : current.entrySet()) {
+			Long known = snapshot.put(file.getKey(), file.getValue());
+			if (known == null) {
+				coalescer.add(file.getKey(), ENTRY_CREATE, now);
+				changes++;
+			} else if (!known.equals(file.getValue())) {
+				coalescer.add(file.getKey(), ENTRY_MODIFY, now);
+				changes++;
+			}
+		}
+		for (Path file : snapshot.keySet()) {
+			if (!current.containsKey(file)) {
+				snapshot.remove(file);
+				coalescer.add(file, ENTRY_DELETE, now);
+				changes++;
+			}
+		}
+		log.debug(MessageFormat.format("Rescan of directory {0} found {1} changes and {2} new directories.", dir, changes, newDirectories.size()));
 
-					} while (key.reset());
+		for (Path newDirectory : newDirectories) {
+			try {
+				discoverFiles(newDirectory);
+			} catch (IOException e) {
+				log.error("", e);
+			}
+		}
+	}
 
-				} catch (InterruptedException e) {
-					// do nothing
+	/**
+	 * Compares the modification times of the known files of the specified
+	 * directory with its snapshot and adds the modified and deleted files to
+	 * the pending events. New files are not detected, since they change the
+	 * modification time of the directory, see {@link #rescan(Path)}.
+	 * 
+	 * @param dir
+	 *            A directory that was registered by this watch service.
+	 */
+	void checkFiles(Path dir) {
+		Map<Path, Long> snapshot = snapshots.get(dir);
+		if (snapshot == null) {
+			return;
+		}
+		long now = currentTimeMillis();
+		for (Map.Entry<Path, Long> file : snapshot.entrySet()) {
+			try {
+				long lastModified = Files.getLastModifiedTime(file.getKey(), LinkOption.NOFOLLOW_LINKS).toMillis();
+				if (lastModified != file.getValue()) {
+					file.setValue(lastModified);
+					coalescer.add(file.getKey(), ENTRY_MODIFY, now);
 				}
-				shutdown();
-				return true;
+			} catch (IOException e) {
+				snapshot.remove(file.getKey());
+				coalescer.add(file.getKey(), ENTRY_DELETE, now);
 			}
-		};
+		}
+	}
+
+	/**
+	 * Forgets the specified deleted directory and adds its known files as
+	 * deleted to the pending events.
+	 * 
+	 * @param dir
+	 *            A directory that was registered by this watch service.
+	 */
+	void directoryDeleted(Path dir) {
+		Map<Path, Long> snapshot = snapshots.remove(dir);
+		if (snapshot == null) {
+			return;
+		}
+		log.debug(MessageFormat.format("Directory {0} was deleted.", dir));
+		long now = currentTimeMillis();
+		for (Path file : snapshot.keySet()) {
+			coalescer.add(file, ENTRY_DELETE, now);
+		}
+	}
+
+	private ConcurrentHashMap<Path, Long> getSnapshot(Path dir) {
+		ConcurrentHashMap<Path, Long> snapshot = snapshots.get(dir);
+		if (snapshot == null) {
+			ConcurrentHashMap<Path, Long> newSnapshot = new ConcurrentHashMap<>();
+			snapshot = snapshots.putIfAbsent(dir, newSnapshot);
+			if (snapshot == null) {
+				snapshot = newSnapshot;
+			}
+		}
+		return snapshot;
+	}
+
+	private void remember(Path file, long lastModified) {
+		getSnapshot(file.getParent()).put(file, lastModified);
+	}
+
+	private void remember(Path file) {
+		try {
+			remember(file, Files.getLastModifiedTime(file, LinkOption.NOFOLLOW_LINKS).toMillis());
+		} catch (IOException e) {
+			forget(file);
+		}
+	}
+
+	private void forget(Path file) {
+		Map<Path, Long> snapshot = snapshots.get(file.getParent());
+		if (snapshot != null) {
+			snapshot.remove(file);
+		}
+	}
+
+	/**
+	 * Forgets the specified directory after it became inaccessible.
+	 * 
+	 * @param dir
+	 *            A directory that was registered by this watch service.
+	 */
+	void directoryInvalidated(Path dir) {
+		if (snapshots.remove(dir) != null) {
+			log.debug(MessageFormat.format("Directory {0} is no longer watched.", dir));
+		}
+	}
+
+	/**
+	 * Returns the time until the next coalesced event is due.
+	 * 
+	 * @param now
+	 *            The current time in milliseconds.
+	 * @return The remaining delay or <code>-1</code> if there are no pending
+	 *         events.
+	 */
+	long getRemainingDelay(long now) {
+		return coalescer.getRemainingDelay(now);
+	}
+
+	/**
+	 * Hands all coalesced events whose quiet period elapsed to the controller.
+	 * 
+	 * @param now
+	 *            The current time in milliseconds.
+	 */
+	void dispatchPendingEvents(long now) {
+		for (Map.Entry<Path, WatchEvent.Kind<Path>> event : coalescer.drain(now)) {
+			dispatch(event.getKey(), event.getValue());
+		}
+	}
+
+	private void dispatch(Path file, WatchEvent.Kind<Path> kind) {
+		WatchServiceController controller = this.controller;
+		if (controller == null) {
+			return;
+		}
+		log.debug(MessageFormat.format("Dispatch coalesced event for {0}: {1}.", file.getFileName().toString(), kind.name()));
+		if (kind == ENTRY_CREATE || kind == ENTRY_MODIFY) {
+			controller.processFile(file);
+		} else if (kind == ENTRY_DELETE) {
+			controller.processDeletedFile(file);
+		}
+	}
+
+	static long currentTimeMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+	}
+
+	/**
+	 * Sets the quiet period that is used for merging bursts of events of the
+	 * same file. A file is processed as soon as it did not change for the
+	 * specified period. Must be called before {@link #init()}.
+	 * 
+	 * @param quietPeriod
+	 *            The quiet period in milliseconds, <code>0</code> disables the
+	 *            merging.
+	 */
+	public void setQuietPeriod(long quietPeriod) {
+		this.quietPeriod = quietPeriod;
+	}
+
+	/**
+	 * Enables or disables the parallel discovery of the directory tree. Must
+	 * be called before {@link #init()}.
+	 * 
+	 * @param parallelDiscovery
+	 *            <code>true</code> if the sub directories should be walked in
+	 *            parallel.
+	 */
+	public void setParallelDiscovery(boolean parallelDiscovery) {
+		this.parallelDiscovery = parallelDiscovery;
 	}
 
 	private void discoverFiles(Path root) throws IOException {
-		Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+		WatchServiceController controller = this.controller;
+		if (controller == null) {
+			return;
+		}
+		final List<Path> files = Collections.synchronizedList(new ArrayList<Path>());
 
-			@Override
-			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-				if (fileFilter.accept(file)) {
-					log.debug(MessageFormat.format("Process file {0}.", file.getFileName().toString()));
-					controller.processFile(file);
-				}
-				return super.visitFile(file, attrs);
+		if (parallelDiscovery) {
+			try {
+				controller.getDiscoveryPool().invoke(new DiscoveryTask(root, files));
+			} catch (DiscoveryException e) {
+				throw e.getCause();
 			}
+		} else {
+			Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+					if (fileFilter.accept(file)) {
+						files.add(file);
+						remember(file, attrs.lastModifiedTime().toMillis());
+					}
+					return super.visitFile(file, attrs);
+				}
+
+				@Override
+				public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+					if (!acceptDirectory(dir)) {
+						log.debug(MessageFormat.format("Skip directory {0}.", dir));
+						return FileVisitResult.SKIP_SUBTREE;
+					}
+					register(dir);
+					return super.preVisitDirectory(dir, attrs);
+				}
+			});
+		}
 
-			@Override
-			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
-				log.debug(MessageFormat.format("Watch on directory {0}.", dir.getFileName().toString()));
-				WatchKey key = dir.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
-				keys.put(key, dir);
-				return super.preVisitDirectory(dir, attrs);
+		/* The walk order depends on the file system, sort for a deterministic delivery */
+		Collections.sort(files);
+		log.debug(MessageFormat.format("Discovered {0} files in {1}.", files.size(), root));
+		controller.processFiles(files);
+	}
+
+	private boolean acceptDirectory(Path dir) {
+		return !(fileFilter instanceof DirectoryFilter) || dir.equals(root) || ((DirectoryFilter) fileFilter).acceptDirectory(dir);
+	}
+
+	private void register(Path dir) throws IOException {
+		log.debug(MessageFormat.format("Watch on directory {0}.", dir.getFileName().toString()));
+		backend.register(dir, this);
+		getSnapshot(dir);
+	}
+
+	/**
+	 * Registers a directory and forks a sub task for each of its sub
+	 * directories. Accepted files are collected in the shared list.
+	 */
+	private final class DiscoveryTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Path dir;
+		private final List<Path> files;
+
+		private DiscoveryTask(Path dir, List<Path> files) {
+			this.dir = dir;
+			this.files = files;
+		}
+
+		@Override
+		protected void compute() {
+			List<DiscoveryTask> subTasks = new ArrayList<>();
+			try {
+				register(dir);
+				try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+					for (Path entry : stream) {
+						if (Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS)) {
+							if (acceptDirectory(entry)) {
+								subTasks.add(new DiscoveryTask(entry, files));
+							} else {
+								log.debug(MessageFormat.format("Skip directory {0}.", entry));
+							}
+						} else if (fileFilter.accept(entry)) {
+							files.add(entry);
+							remember(entry);
+						}
+					}
+				}
+			} catch (IOException e) {
+				throw new DiscoveryException(e);
 			}
-		});
+			invokeAll(subTasks);
+		}
 	}
 
-	private void shutdown() throws IOException {
+	/**
+	 * Transports an {@link IOException} out of a {@link DiscoveryTask}.
+	 */
+	private static final class DiscoveryException extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+
+		private DiscoveryException(IOException cause) {
+			super(cause);
+		}
+
+		@Override
+		public synchronized IOException getCause() {
+			return (IOException) super.getCause();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+
+	/**
+	 * Stops this watch service and releases its directories.
+	 */
+	public void shutdown() {
 		controller = null;
-		watchService.close();
+		backend.removeWatcher(this);
+		snapshots.clear();
 		log.info(MessageFormat.format("Stopped watch service based on configuration {0}.", name));
 	}
 }
@@ -0,0 +1,108 @@
+package ch.meyerdaniel.osgi.fss.service.intern;
+
+import java.util.Collections;
+import java.util.Dictionary;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.Set;
+
+/**
+ * This class holds the key level differences between two configurations of
+ * the same service pid. The entry <code>lastmodifiedtime</code> changes with
+ * every write of a file and is not considered a change on its own.
+ * 
+ * @author Daniel Meyer
+ * 
+ */
+public final class ConfigurationDiff {
+
+	/**
+	 * The entry that holds the modification time of the configuration file.
+	 */
+	static final String LAST_MODIFIED_TIME = "lastmodifiedtime";
+
+	private final Hashtable<String, Object> changed;
+
+	private final Set<String> removedKeys;
+
+	private final boolean empty;
+
+	private ConfigurationDiff(Hashtable<String, Object> changed, Set<String> removedKeys, boolean empty) {
+		this.changed = changed;
+		this.removedKeys = removedKeys;
+		this.empty = empty;
+	}
+
+	/**
+	 * Compares two configurations.
+	 * 
+	 * @param previous
+	 *            The previous configuration.
+	 * @param current
+	 *            The current configuration.
+	 * @return The differences.
+	 */
+	@SuppressWarnings("rawtypes")
+	public static ConfigurationDiff compute(Dictionary previous, Dictionary current) {
+		Hashtable<String, Object> changed = new Hashtable<>();
+		Set<String> removedKeys = new HashSet<>();
+		boolean empty = true;
+
+		for (Enumeration keys = current.keys(); keys.hasMoreElements();) {
+			Object key = keys.nextElement();
+			Object value = current.get(key);
+			if (!value.equals(previous.get(key))) {
+				changed.put(String.valueOf(key), value);
+				empty &= LAST_MODIFIED_TIME.equals(key);
+			}
+		}
+		for (Enumeration keys = previous.keys(); keys.hasMoreElements();) {
+			Object key = keys.nextElement();
+			if (current.get(key) == null) {
+				removedKeys.add(String.valueOf(key));
+				empty &= LAST_MODIFIED_TIME.equals(key);
+			}
+		}
+		return new ConfigurationDiff(changed, Collections.unmodifiableSet(removedKeys), empty);
+	}
+
+	/**
+	 * Tests whether two configurations are equal apart from their
+	 * modification time.
+	 * 
+	 * @param previous
+	 *            The previous configuration or <code>null</code>.
+	 * @param current
+	 *            The current configuration or <code>null</code>.
+	 * @return <code>true</code> if nothing changed.
+	 */
+	@SuppressWarnings("rawtypes")
+	public static boolean isUnchanged(Dictionary previous, Dictionary current) {
+		if (previous == null || current == null) {
+			return previous == current;
+		}
+		return compute(previous, current).isEmpty();
+	}
+
+	/**
+	 * @return <code>true</code> if at most the modification time changed.
+	 */
+	public boolean isEmpty() {
+		return empty;
+	}
+
+	/**
+	 * @return The added and modified entries.
+	 */
+	public Dictionary<String, Object> getChanged() {
+		return changed;
+	}
+
+	/**
+	 * @return The keys of the removed entries.
+	 */
+	public Set<String> getRemovedKeys() {
+		return removedKeys;
+	}
+}
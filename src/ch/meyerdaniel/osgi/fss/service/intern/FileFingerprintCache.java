@@ -0,0 +1,228 @@
+package ch.meyerdaniel.osgi.fss.service.intern;
+
+import static java.nio.file.StandardOpenOption.READ;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class remembers the size, the modification time and a content hash of
+ * processed files. It is used to detect whether a file really changed since it
+ * was processed the last time.
+ * </p> The content hash is only computed if the size or the modification time
+ * changed, or if the modification time is too close to the time the file was
+ * fingerprinted to be trusted.
+ *
+ * @author Daniel Meyer
+ *
+ */
+public class FileFingerprintCache {
+
+	/**
+	 * Modification times closer than this to the fingerprint time are not
+	 * trusted, since file systems with a coarse timestamp granularity could
+	 * hide a later change.
+	 */
+	private static final long TIMESTAMP_GRANULARITY = 2000;
+
+	private static final String HASH_ALGORITHM = "SHA-1";
+
+	private final ConcurrentHashMap</* Path */Path, Fingerprint> fingerprints;
+
+	private final AtomicLong hits;
+
+	private final AtomicLong misses;
+
+	public FileFingerprintCache() {
+		fingerprints = new ConcurrentHashMap<>();
+		hits = new AtomicLong();
+		misses = new AtomicLong();
+	}
+
+	/**
+	 * Fingerprints the specified file and compares it with the cached
+	 * fingerprint.
+	 *
+	 * @param file
+	 *            Any file.
+	 * @return <code>true</code> if the file is unknown or its content changed
+	 *         since the last call.
+	 * @throws IOException
+	 *             {@link IOException}
+	 */
+	public boolean update(Path file) throws IOException {
+		BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+		long size = attributes.size();
+		long lastModified = attributes.lastModifiedTime().toMillis();
+		Fingerprint cached = fingerprints.get(file);
+
+		if (cached != null && cached.size == size && cached.lastModified == lastModified && cached.created - lastModified > TIMESTAMP_GRANULARITY) {
+			hits.incrementAndGet();
+			return false;
+		}
+
+		byte[] hash = hash(file);
+		fingerprints.put(file, new Fingerprint(size, lastModified, hash));
+
+		if (cached != null && cached.size == size && Arrays.equals(cached.hash, hash)) {
+			hits.incrementAndGet();
+			return false;
+		}
+		misses.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * @param file
+	 *            Any file.
+	 * @return <code>true</code> if the specified file was fingerprinted
+	 *         before.
+	 */
+	public boolean contains(Path file) {
+		return fingerprints.containsKey(file);
+	}
+
+	/**
+	 * Removes the fingerprint of the specified file.
+	 *
+	 * @param file
+	 *            Any file.
+	 */
+	public void remove(Path file) {
+		fingerprints.remove(file);
+	}
+
+	/**
+	 * Removes all fingerprints.
+	 */
+	public void clear() {
+		fingerprints.clear();
+	}
+
+	/**
+	 * @return The number of files that were detected as unchanged.
+	 */
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	/**
+	 * @return The number of files that were unknown or changed.
+	 */
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	/**
+	 * @return The number of cached fingerprints.
+	 */
+	public int size() {
+		return fingerprints.size();
+	}
+
+	/**
+	 * Writes the fingerprints of the specified files.
+	 *
+	 * @param out
+	 *            Any output.
+	 * @param files
+	 *            The files to write or <code>null</code> for all files.
+	 * @throws IOException
+	 *             {@link IOException}
+	 */
+	public void write(DataOutput out, Collection<Path> files) throws IOException {
+		Map<Path, Fingerprint> selected = new HashMap<>();
+		for (Path file : files == null ? fingerprints.keySet() : files) {
+			Fingerprint fingerprint = fingerprints.get(file);
+			if (fingerprint != null) {
+				selected.put(file, fingerprint);
+			}
+		}
+		out.writeInt(selected.size());
+		for (Map.Entry<Path, Fingerprint> entry : selected.entrySet()) {
+			Fingerprint fingerprint = entry.getValue();
+			out.writeUTF(entry.getKey().toString());
+			out.writeLong(fingerprint.size);
+			out.writeLong(fingerprint.lastModified);
+			out.writeLong(fingerprint.created);
+			out.writeShort(fingerprint.hash.length);
+			out.write(fingerprint.hash);
+		}
+	}
+
+	/**
+	 * Adds the fingerprints that were written by
+	 * {@link #write(DataOutput, Collection)}.
+	 *
+	 * @param in
+	 *            Any input.
+	 * @param fileSystem
+	 *            The file system of the fingerprinted files.
+	 * @throws IOException
+	 *             {@link IOException}
+	 */
+	public void read(DataInput in, FileSystem fileSystem) throws IOException {
+		int count = in.readInt();
+		for (int i = 0; i < count; i++) {
+			Path file = fileSystem.getPath(in.readUTF());
+			long size = in.readLong();
+			long lastModified = in.readLong();
+			long created = in.readLong();
+			byte[] hash = new byte[in.readUnsignedShort()];
+			in.readFully(hash);
+			fingerprints.put(file, new Fingerprint(size, lastModified, hash, created));
+		}
+	}
+
+	private static byte[] hash(Path file) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance(HASH_ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+		try (FileChannel channel = FileChannel.open(file, READ)) {
+			ByteBuffer buffer = ByteBuffer.allocate(8192);
+			while (channel.read(buffer) != -1) {
+				buffer.flip();
+				digest.update(buffer);
+				buffer.clear();
+			}
+		}
+		return digest.digest();
+	}
+
+	private static final class Fingerprint {
+
+		private final long size;
+		private final long lastModified;
+		private final byte[] hash;
+		private final long created;
+
+		private Fingerprint(long size, long lastModified, byte[] hash) {
+			this(size, lastModified, hash, System.currentTimeMillis());
+		}
+
+		private Fingerprint(long size, long lastModified, byte[] hash, long created) {
+			this.size = size;
+			this.lastModified = lastModified;
+			this.hash = hash;
+			this.created = created;
+		}
+	}
+}
@@ -0,0 +1,155 @@
+package ch.meyerdaniel.osgi.fss.service.intern;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * This class executes tasks in the order of their submission as long as they
+ * share the same key. Tasks with different keys are executed in parallel by
+ * the wrapped executor.
+ * </p> If the wrapped executor is saturated, a new key is processed by the
+ * submitting thread and a running key keeps its worker thread until its tasks
+ * are done.
+ *
+ * @author Daniel Meyer
+ *
+ */
+public class KeyedSerialExecutor {
+
+	private final ExecutorService executor;
+
+	private final ConcurrentHashMap</* Key */String, SerialQueue> queues;
+
+	/**
+	 * @param executor
+	 *            The executor that runs the tasks.
+	 */
+	public KeyedSerialExecutor(ExecutorService executor) {
+		this.executor = executor;
+		queues = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * Submits the specified task. The task is executed after all previously
+	 * submitted tasks with the same key are completed.
+	 *
+	 * @param key
+	 *            The key that identifies the ordering.
+	 * @param task
+	 *            Any task.
+	 * @return A future representing the pending completion of the task.
+	 * @throws RejectedExecutionException
+	 *             If the wrapped executor is shut down.
+	 */
+	public Future<?> submit(String key, Runnable task) {
+		FutureTask<Void> future = new FutureTask<>(task, null);
+		while (true) {
+			SerialQueue queue = queues.get(key);
+			if (queue == null) {
+				SerialQueue newQueue = new SerialQueue(key);
+				queue = queues.putIfAbsent(key, newQueue);
+				if (queue == null) {
+					queue = newQueue;
+				}
+			}
+			if (queue.offer(future)) {
+				return future;
+			}
+			/* The queue was retired concurrently, try again with a new one */
+		}
+	}
+
+	/**
+	 * @return The number of keys that currently have pending or running
+	 *         tasks.
+	 */
+	public int getActiveKeyCount() {
+		return queues.size();
+	}
+
+	private final class SerialQueue implements Runnable {
+
+		private final String key;
+		private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+		private boolean running;
+		private boolean retired;
+
+		private SerialQueue(String key) {
+			this.key = key;
+		}
+
+		private boolean offer(Runnable task) {
+			synchronized (this) {
+				if (retired) {
+					return false;
+				}
+				tasks.add(task);
+				if (running) {
+					return true;
+				}
+				running = true;
+			}
+			schedule();
+			return true;
+		}
+
+		private void schedule() {
+			try {
+				executor.execute(this);
+			} catch (RejectedExecutionException e) {
+				if (executor.isShutdown()) {
+					discard();
+					throw e;
+				}
+				/* The executor is saturated, apply backpressure to the submitter */
+				run();
+			}
+		}
+
+		private void discard() {
+			synchronized (this) {
+				retired = true;
+				running = false;
+				tasks.clear();
+			}
+			queues.remove(key, this);
+		}
+
+		@Override
+		public void run() {
+			while (true) {
+				Runnable task;
+				synchronized (this) {
+					task = tasks.poll();
+				}
+				if (task != null) {
+					task.run();
+				}
+				synchronized (this) {
+					if (tasks.isEmpty()) {
+						running = false;
+						retired = true;
+						queues.remove(key, this);
+						return;
+					}
+				}
+				/* Reschedule instead of looping to give other keys a chance */
+				try {
+					executor.execute(this);
+					return;
+				} catch (RejectedExecutionException e) {
+					if (executor.isShutdown()) {
+						/* Pending tasks are discarded */
+						discard();
+						return;
+					}
+					/* The executor is saturated, keep this worker */
+				}
+			}
+		}
+	}
+}
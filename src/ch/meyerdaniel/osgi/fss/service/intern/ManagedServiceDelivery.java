@@ -0,0 +1,272 @@
+package ch.meyerdaniel.osgi.fss.service.intern;
+
+import java.text.MessageFormat;
+import java.util.Dictionary;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.osgi.service.cm.ConfigurationException;
+import org.osgi.service.cm.ManagedService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ch.meyerdaniel.osgi.fss.api.ConfigurationChangeListener;
+
+/**
+ * This class delivers configurations to managed services. Each service has
+ * its own queue that holds at most one pending configuration: a configuration
+ * that arrives while another one is pending replaces it, so a slow service
+ * skips superseded configurations and always receives the latest one last.
+ * At most one {@link ManagedService#updated(Dictionary)} call runs at a time
+ * for each service, while different services are updated in parallel by the
+ * wrapped executor.
+ * </p> A configuration that equals the last delivered one apart from its
+ * modification time is skipped. Services that implement
+ * {@link ConfigurationChangeListener} only receive the changed entries once
+ * they received a configuration, see {@link ConfigurationDiff}.
+ * 
+ * @author Daniel Meyer
+ * 
+ */
+public class ManagedServiceDelivery {
+
+	private static final Logger log = LoggerFactory.getLogger(ManagedServiceDelivery.class);
+
+	private final ExecutorService executor;
+
+	private final ConcurrentHashMap<ManagedService, ServiceQueue> queues;
+
+	private final AtomicInteger pending;
+
+	private final AtomicLong delivered;
+
+	private final AtomicLong dropped;
+
+	private final AtomicLong skipped;
+
+	/**
+	 * @param executor
+	 *            The executor that runs the updates.
+	 */
+	public ManagedServiceDelivery(ExecutorService executor) {
+		this.executor = executor;
+		queues = new ConcurrentHashMap<>();
+		pending = new AtomicInteger();
+		delivered = new AtomicLong();
+		dropped = new AtomicLong();
+		skipped = new AtomicLong();
+	}
+
+	/**
+	 * Delivers the specified configuration to the specified service. A
+	 * pending configuration of the service that was not delivered yet is
+	 * dropped.
+	 * 
+	 * @param service
+	 *            Any managed service.
+	 * @param servicePid
+	 *            The service pid of the configuration, is used for logging.
+	 * @param configuration
+	 *            The configuration or <code>null</code> if it was deleted.
+	 */
+	@SuppressWarnings("rawtypes")
+	public void deliver(ManagedService service, String servicePid, Dictionary configuration) {
+		ServiceQueue queue = queues.get(service);
+		if (queue == null) {
+			ServiceQueue newQueue = new ServiceQueue(service);
+			queue = queues.putIfAbsent(service, newQueue);
+			if (queue == null) {
+				queue = newQueue;
+			}
+		}
+		queue.offer(new Delivery(servicePid, configuration));
+	}
+
+	/**
+	 * Drops the pending configuration of the specified service. An update
+	 * that is running is completed.
+	 * 
+	 * @param service
+	 *            Any managed service.
+	 */
+	public void remove(ManagedService service) {
+		ServiceQueue queue = queues.remove(service);
+		if (queue != null) {
+			queue.clear();
+		}
+	}
+
+	/**
+	 * @return The number of configurations that wait for their delivery.
+	 */
+	public int getQueueDepth() {
+		return pending.get();
+	}
+
+	/**
+	 * @return The number of configurations that were delivered.
+	 */
+	public long getDeliveredCount() {
+		return delivered.get();
+	}
+
+	/**
+	 * @return The number of configurations that were dropped, since a newer
+	 *         configuration arrived before their delivery.
+	 */
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+
+	/**
+	 * @return The number of configurations that were skipped, since nothing
+	 *         but their modification time changed.
+	 */
+	public long getSkippedCount() {
+		return skipped.get();
+	}
+
+	/**
+	 * A configuration for one service, <code>null</code> stands for a
+	 * deleted configuration.
+	 */
+	private static final class Delivery {
+
+		private final String servicePid;
+
+		@SuppressWarnings("rawtypes")
+		private final Dictionary configuration;
+
+		@SuppressWarnings("rawtypes")
+		private Delivery(String servicePid, Dictionary configuration) {
+			this.servicePid = servicePid;
+			this.configuration = configuration;
+		}
+	}
+
+	private final class ServiceQueue implements Runnable {
+
+		private final ManagedService service;
+		private Delivery next;
+		private boolean running;
+
+		/* Only accessed by the running delivery */
+		@SuppressWarnings("rawtypes")
+		private Dictionary last;
+		private boolean updated;
+
+		private ServiceQueue(ManagedService service) {
+			this.service = service;
+		}
+
+		private void offer(Delivery delivery) {
+			synchronized (this) {
+				if (next == null) {
+					pending.incrementAndGet();
+				} else {
+					dropped.incrementAndGet();
+					log.debug(MessageFormat.format("Drop superseded configuration with service pid {0} for {1}.", next.servicePid, service.getClass().getName()));
+				}
+				next = delivery;
+				if (running) {
+					return;
+				}
+				running = true;
+			}
+			schedule();
+		}
+
+		private void clear() {
+			synchronized (this) {
+				if (next != null) {
+					next = null;
+					pending.decrementAndGet();
+				}
+			}
+		}
+
+		private void schedule() {
+			try {
+				executor.execute(this);
+			} catch (RejectedExecutionException e) {
+				if (executor.isShutdown()) {
+					discard();
+					return;
+				}
+				/* The executor is saturated, apply backpressure to the caller */
+				run();
+			}
+		}
+
+		private void discard() {
+			clear();
+			synchronized (this) {
+				running = false;
+			}
+			log.debug("Delivery is stopped, discard pending configuration.");
+		}
+
+		private void update(Delivery delivery) throws ConfigurationException {
+			if (updated && ConfigurationDiff.isUnchanged(last, delivery.configuration)) {
+				skipped.incrementAndGet();
+				log.debug(MessageFormat.format("Skip unchanged configuration with pid {0} for {1}.", delivery.servicePid, service.getClass().getName()));
+				return;
+			}
+			if (last != null && delivery.configuration != null && service instanceof ConfigurationChangeListener) {
+				ConfigurationDiff diff = ConfigurationDiff.compute(last, delivery.configuration);
+				((ConfigurationChangeListener) service).configurationChanged(delivery.servicePid, diff.getChanged(), diff.getRemovedKeys());
+			} else {
+				service.updated(delivery.configuration);
+			}
+			last = delivery.configuration;
+			updated = true;
+			delivered.incrementAndGet();
+			log.debug(MessageFormat.format("Updated service with pid {0} of class {1}.", delivery.servicePid, service.getClass().getName()));
+		}
+
+		@Override
+		public void run() {
+			while (true) {
+				Delivery delivery;
+				synchronized (this) {
+					delivery = next;
+					next = null;
+					if (delivery == null) {
+						running = false;
+						return;
+					}
+					pending.decrementAndGet();
+				}
+
+				try {
+					update(delivery);
+				} catch (ConfigurationException e) {
+					log.error("", e);
+				} catch (RuntimeException e) {
+					log.error(MessageFormat.format("Service {0} failed to update configuration with pid {1}.", service.getClass().getName(), delivery.servicePid), e);
+				}
+
+				synchronized (this) {
+					if (next == null) {
+						running = false;
+						return;
+					}
+				}
+				/* Reschedule instead of looping to give other services a chance */
+				try {
+					executor.execute(this);
+					return;
+				} catch (RejectedExecutionException e) {
+					if (executor.isShutdown()) {
+						discard();
+						return;
+					}
+					/* The executor is saturated, keep this worker */
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,185 @@
+package ch.meyerdaniel.osgi.fss.service.intern;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.text.MessageFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class is a {@link WatchBackend} that polls the watched directories
+ * instead of using the watch service of the file system. It is meant for
+ * mounts whose watch service misses events or is slow, like bind mounts,
+ * overlay file systems and network shares.
+ * </p> The modification time of each watched directory is kept. A directory
+ * is only listed again if its modification time changed, otherwise only its
+ * known files are checked, see {@link ConfigurableWatchService#rescan(Path)}
+ * and {@link ConfigurableWatchService#checkFiles(Path)}. Since the
+ * modification time of a directory only reflects its own entries, each
+ * watched directory is still checked at every poll.
+ * 
+ * @author Daniel Meyer
+ * 
+ */
+public class PollingWatchBackend implements WatchBackend, Runnable {
+
+	private static final Logger log = LoggerFactory.getLogger(PollingWatchBackend.class);
+
+	/**
+	 * Directory modification times closer than this to the poll time are not
+	 * trusted, since file systems with a coarse timestamp granularity could
+	 * hide a later change.
+	 */
+	private static final long TIMESTAMP_GRANULARITY = 2000;
+
+	private final ScheduledExecutorService scheduler;
+
+	private final long pollInterval;
+
+	private final ConcurrentHashMap<ConfigurableWatchService, ConcurrentHashMap</* Directory */Path, /* Modification time */Long>> watchers;
+
+	private boolean scheduled;
+
+	private long nextPoll;
+
+	/**
+	 * @param scheduler
+	 *            Runs the polls and dispatches the pending events.
+	 * @param pollInterval
+	 *            The time between two polls in milliseconds.
+	 */
+	public PollingWatchBackend(ScheduledExecutorService scheduler, long pollInterval) {
+		if (pollInterval <= 0) {
+			throw new IllegalArgumentException("Poll interval must be positive: " + pollInterval);
+		}
+		this.scheduler = scheduler;
+		this.pollInterval = pollInterval;
+		watchers = new ConcurrentHashMap<>();
+	}
+
+	@Override
+	public void register(Path dir, ConfigurableWatchService watcher) throws IOException {
+		getDirectories(watcher).put(dir, Files.getLastModifiedTime(dir, LinkOption.NOFOLLOW_LINKS).toMillis());
+	}
+
+	@Override
+	public void addWatcher(ConfigurableWatchService watcher) {
+		getDirectories(watcher);
+		synchronized (this) {
+			if (!scheduled) {
+				scheduled = true;
+				nextPoll = ConfigurableWatchService.currentTimeMillis() + pollInterval;
+				schedule(pollInterval);
+			}
+		}
+	}
+
+	@Override
+	public void removeWatcher(ConfigurableWatchService watcher) {
+		watchers.remove(watcher);
+	}
+
+	@Override
+	public void run() {
+		long delay = pollInterval;
+		try {
+			delay = pollAndDispatch();
+		} catch (RuntimeException e) {
+			log.error(MessageFormat.format("Poll with interval {0} ms failed.", pollInterval), e);
+		} finally {
+			/* Keep polling whatever happened, otherwise the watchers would silently stop */
+			synchronized (this) {
+				if (watchers.isEmpty()) {
+					scheduled = false;
+				} else {
+					schedule(delay);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Polls the directories if the interval elapsed and dispatches the pending
+	 * events. A failing watcher does not affect the others.
+	 * 
+	 * @return The delay until the next run.
+	 */
+	private long pollAndDispatch() {
+		long now = ConfigurableWatchService.currentTimeMillis();
+		if (now >= nextPoll) {
+			for (Map.Entry<ConfigurableWatchService, ConcurrentHashMap<Path, Long>> watcher : watchers.entrySet()) {
+				try {
+					poll(watcher.getKey(), watcher.getValue());
+				} catch (RuntimeException e) {
+					log.error(MessageFormat.format("Watcher {0} failed to poll its directories.", watcher.getKey()), e);
+				}
+			}
+			now = ConfigurableWatchService.currentTimeMillis();
+			nextPoll = now + pollInterval;
+		}
+
+		long delay = nextPoll - now;
+		for (ConfigurableWatchService watcher : watchers.keySet()) {
+			try {
+				watcher.dispatchPendingEvents(now);
+				long watcherDelay = watcher.getRemainingDelay(now);
+				if (watcherDelay >= 0 && watcherDelay < delay) {
+					delay = watcherDelay;
+				}
+			} catch (RuntimeException e) {
+				log.error(MessageFormat.format("Watcher {0} failed to dispatch its events.", watcher), e);
+			}
+		}
+		return delay;
+	}
+
+	private void poll(ConfigurableWatchService watcher, ConcurrentHashMap<Path, Long> directories) {
+		long time = System.currentTimeMillis();
+		for (Map.Entry<Path, Long> directory : directories.entrySet()) {
+			Path dir = directory.getKey();
+			long lastModified;
+			try {
+				lastModified = Files.getLastModifiedTime(dir, LinkOption.NOFOLLOW_LINKS).toMillis();
+			} catch (IOException e) {
+				directories.remove(dir);
+				watcher.directoryDeleted(dir);
+				continue;
+			}
+			if (lastModified != directory.getValue() || time - lastModified < TIMESTAMP_GRANULARITY) {
+				directory.setValue(lastModified);
+				watcher.rescan(dir);
+			} else {
+				watcher.checkFiles(dir);
+			}
+		}
+	}
+
+	private ConcurrentHashMap<Path, Long> getDirectories(ConfigurableWatchService watcher) {
+		ConcurrentHashMap<Path, Long> directories = watchers.get(watcher);
+		if (directories == null) {
+			ConcurrentHashMap<Path, Long> newDirectories = new ConcurrentHashMap<>();
+			directories = watchers.putIfAbsent(watcher, newDirectories);
+			if (directories == null) {
+				directories = newDirectories;
+			}
+		}
+		return directories;
+	}
+
+	private void schedule(long delay) {
+		try {
+			scheduler.schedule(this, Math.max(0, delay), TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			log.debug(MessageFormat.format("Scheduler is stopped, stop polling with interval {0} ms.", pollInterval));
+			scheduled = false;
+		}
+	}
+}
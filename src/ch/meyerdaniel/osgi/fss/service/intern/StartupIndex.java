@@ -0,0 +1,294 @@
+package ch.meyerdaniel.osgi.fss.service.intern;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class persists the fingerprints of processed files and the parsed
+ * property file configurations in the data area of the bundle. On a restart
+ * the fingerprints let unchanged files be skipped without hashing them, and
+ * the configurations of unchanged files are served from the index instead of
+ * being read again.
+ * </p> XML files are not indexed, since their configurations contain
+ * documents, and neither are property files that configure watchers, since
+ * the watchers have to be created again.
+ * 
+ * @author Daniel Meyer
+ * 
+ */
+public class StartupIndex {
+
+	private static final Logger log = LoggerFactory.getLogger(StartupIndex.class);
+
+	private static final int MAGIC = 0x46535349;
+
+	private static final int VERSION = 1;
+
+	private static final byte STRING_VALUE = 0;
+
+	private static final byte FILE_TIME_VALUE = 1;
+
+	/**
+	 * The index is written as soon as no change was reported for this time.
+	 */
+	private static final long WRITE_DELAY = 5000;
+
+	/**
+	 * The maximum time from the first reported change to the write, so that a
+	 * steady stream of changes cannot postpone the write forever.
+	 */
+	private static final long MAX_WRITE_DELAY = 30000;
+
+	private final Path file;
+
+	private final FileFingerprintCache fingerprints;
+
+	private final FileFingerprintCache bundleFingerprints;
+
+	private final Map</* Service PID */String, Properties> configurations;
+
+	private final Map</* Service PID */String, Path> configurationFiles;
+
+	private final ScheduledExecutorService scheduler;
+
+	private final AtomicBoolean writePending;
+
+	private volatile long lastChange;
+
+	private volatile long writeDeadline;
+
+	/**
+	 * @param file
+	 *            The index file.
+	 * @param fingerprints
+	 *            The fingerprints of the configuration files.
+	 * @param bundleFingerprints
+	 *            The fingerprints of the jars.
+	 * @param configurations
+	 *            The configurations by service pid.
+	 * @param configurationFiles
+	 *            The property files of the configurations by service pid.
+	 */
+	public StartupIndex(Path file, FileFingerprintCache fingerprints, FileFingerprintCache bundleFingerprints, Map<String, Properties> configurations, Map<String, Path> configurationFiles) {
+		this.file = file;
+		this.fingerprints = fingerprints;
+		this.bundleFingerprints = bundleFingerprints;
+		this.configurations = configurations;
+		this.configurationFiles = configurationFiles;
+		scheduler = ThreadPools.newSingleThreadScheduledExecutor("fss-index");
+		writePending = new AtomicBoolean();
+	}
+
+	/**
+	 * Reads the index and seeds the fingerprints and the configurations. A
+	 * configuration is only seeded if its file was not modified since it was
+	 * indexed, otherwise its fingerprint is dropped, so that the file is
+	 * processed again.
+	 * 
+	 * @param fileSystem
+	 *            The file system of the indexed files.
+	 */
+	public void load(FileSystem fileSystem) {
+		long start = System.nanoTime();
+		int seeded = 0;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				log.info(MessageFormat.format("Ignore startup index {0} of an unknown version.", file));
+				return;
+			}
+			fingerprints.read(in, fileSystem);
+			bundleFingerprints.read(in, fileSystem);
+
+			int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				String servicePid = readString(in);
+				Path configFile = fileSystem.getPath(readString(in));
+				Properties prop = readProperties(in);
+				if (isUnmodified(configFile, prop)) {
+					configurations.put(servicePid, prop);
+					configurationFiles.put(servicePid, configFile);
+					seeded++;
+				} else {
+					fingerprints.remove(configFile);
+				}
+			}
+		} catch (NoSuchFileException e) {
+			return;
+		} catch (IOException e) {
+			log.warn(MessageFormat.format("Could not read startup index {0}, process all files.", file), e);
+			configurations.clear();
+			configurationFiles.clear();
+			fingerprints.clear();
+			bundleFingerprints.clear();
+			return;
+		}
+		log.info(MessageFormat.format("Loaded startup index with {0} configurations and {1} bundles in {2} ms.", seeded, bundleFingerprints.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+	}
+
+	/**
+	 * Writes the index after a delay. Further calls within the delay are
+	 * merged into one pending write, which is postponed until no change was
+	 * reported for {@value #WRITE_DELAY} ms, but at most for
+	 * {@value #MAX_WRITE_DELAY} ms.
+	 */
+	public void scheduleWrite() {
+		long now = ConfigurableWatchService.currentTimeMillis();
+		lastChange = now;
+		if (writePending.compareAndSet(false, true)) {
+			writeDeadline = now + MAX_WRITE_DELAY;
+			schedule(WRITE_DELAY);
+		}
+	}
+
+	private void schedule(long delay) {
+		try {
+			scheduler.schedule(new Runnable() {
+
+				@Override
+				public void run() {
+					long now = ConfigurableWatchService.currentTimeMillis();
+					long due = Math.min(lastChange + WRITE_DELAY, writeDeadline);
+					if (now < due) {
+						schedule(due - now);
+						return;
+					}
+					/* Changes reported from now on need another write */
+					writePending.set(false);
+					write();
+				}
+			}, delay, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			writePending.set(false);
+			log.debug("Startup index is stopped, ignore write.");
+		}
+	}
+
+	/**
+	 * Writes the index now.
+	 */
+	public void write() {
+		List<String> servicePids = new ArrayList<>();
+		List<Path> configFiles = new ArrayList<>();
+		for (Map.Entry<String, Path> entry : configurationFiles.entrySet()) {
+			Properties prop = configurations.get(entry.getKey());
+			if (prop != null && isIndexable(prop)) {
+				servicePids.add(entry.getKey());
+				configFiles.add(entry.getValue());
+			}
+		}
+
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			try (DataOutputStream out = new DataOutputStream(bytes)) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				fingerprints.write(out, configFiles);
+				bundleFingerprints.write(out, null);
+				out.writeInt(servicePids.size());
+				for (int i = 0; i < servicePids.size(); i++) {
+					writeString(out, servicePids.get(i));
+					writeString(out, configFiles.get(i).toString());
+					writeProperties(out, configurations.get(servicePids.get(i)));
+				}
+			}
+			WriteBehindQueue.writeAtomically(file, bytes.toByteArray());
+			log.debug(MessageFormat.format("Wrote startup index with {0} configurations.", servicePids.size()));
+		} catch (IOException e) {
+			log.error(MessageFormat.format("Could not write startup index {0}.", file), e);
+		}
+	}
+
+	/**
+	 * Stops the scheduled writes and writes the index a last time.
+	 */
+	public void shutdown() {
+		scheduler.shutdownNow();
+		write();
+	}
+
+	private boolean isUnmodified(Path configFile, Properties prop) {
+		Object lastModified = prop.get(ConfigurationDiff.LAST_MODIFIED_TIME);
+		try {
+			return lastModified instanceof FileTime && Files.getLastModifiedTime(configFile).toMillis() == ((FileTime) lastModified).toMillis();
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	private static boolean isIndexable(Properties prop) {
+		for (Map.Entry<Object, Object> entry : prop.entrySet()) {
+			if (!(entry.getKey() instanceof String) || !(entry.getValue() instanceof String || entry.getValue() instanceof FileTime)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static void writeProperties(DataOutputStream out, Properties prop) throws IOException {
+		out.writeInt(prop.size());
+		for (Map.Entry<Object, Object> entry : prop.entrySet()) {
+			writeString(out, (String) entry.getKey());
+			if (entry.getValue() instanceof FileTime) {
+				out.writeByte(FILE_TIME_VALUE);
+				out.writeLong(((FileTime) entry.getValue()).toMillis());
+			} else {
+				out.writeByte(STRING_VALUE);
+				writeString(out, (String) entry.getValue());
+			}
+		}
+	}
+
+	private static Properties readProperties(DataInputStream in) throws IOException {
+		Properties prop = new Properties();
+		int count = in.readInt();
+		for (int i = 0; i < count; i++) {
+			String key = readString(in);
+			byte type = in.readByte();
+			if (type == FILE_TIME_VALUE) {
+				prop.put(key, FileTime.fromMillis(in.readLong()));
+			} else if (type == STRING_VALUE) {
+				prop.put(key, readString(in));
+			} else {
+				throw new IOException("Unknown value type " + type);
+			}
+		}
+		return prop;
+	}
+
+	/**
+	 * Unlike {@link DataOutputStream#writeUTF(String)} strings are not limited
+	 * to 64 KB.
+	 */
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
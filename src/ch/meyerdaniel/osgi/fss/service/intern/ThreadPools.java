@@ -0,0 +1,94 @@
+package ch.meyerdaniel.osgi.fss.service.intern;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class creates the executors used by the {@link WatchServiceController}
+ * and the file services.
+ *
+ * @author Daniel Meyer
+ *
+ */
+public final class ThreadPools {
+
+	private static final long KEEP_ALIVE_SECONDS = 60;
+
+	private ThreadPools() {
+	}
+
+	/**
+	 * Creates an executor with a fixed upper bound of threads. Idle threads are
+	 * terminated after a minute. If the queue is full or the executor is shut
+	 * down, a {@link java.util.concurrent.RejectedExecutionException} is
+	 * thrown, so that the submitter decides how to apply backpressure.
+	 *
+	 * @param name
+	 *            The prefix for the thread names.
+	 * @param threads
+	 *            The maximum number of threads.
+	 * @param queueCapacity
+	 *            The maximum number of waiting tasks, <code>0</code> for an
+	 *            unbounded queue.
+	 * @return A new executor.
+	 */
+	public static ExecutorService newBoundedExecutor(String name, int threads, int queueCapacity) {
+		BlockingQueue<Runnable> queue = queueCapacity > 0 ? new LinkedBlockingQueue<Runnable>(queueCapacity) : new LinkedBlockingQueue<Runnable>();
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, queue, new NamedThreadFactory(name), new ThreadPoolExecutor.AbortPolicy());
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+	/**
+	 * Creates a scheduled executor with a single thread.
+	 *
+	 * @param name
+	 *            The prefix for the thread name.
+	 * @return A new scheduled executor.
+	 */
+	public static ScheduledExecutorService newSingleThreadScheduledExecutor(String name) {
+		ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory(name));
+		executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+		return executor;
+	}
+
+	/**
+	 * Creates an executor that starts a new virtual thread for each task.
+	 *
+	 * @return A new executor or <code>null</code> if the runtime does not
+	 *         support virtual threads.
+	 */
+	public static ExecutorService newVirtualThreadPerTaskExecutor() {
+		try {
+			Method factory = java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) factory.invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return null;
+		}
+	}
+
+	private static final class NamedThreadFactory implements ThreadFactory {
+
+		private final String name;
+		private final AtomicInteger count = new AtomicInteger();
+
+		private NamedThreadFactory(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
@@ -0,0 +1,44 @@
+package ch.meyerdaniel.osgi.fss.service.intern;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * A source of file events for {@link ConfigurableWatchService}s. The native
+ * backend is the {@link WatchServiceDispatcher}, the
+ * {@link PollingWatchBackend} compares snapshots for file systems whose watch
+ * service misses events or is slow.
+ * 
+ * @author Daniel Meyer
+ * 
+ */
+public interface WatchBackend {
+
+	/**
+	 * Starts to watch the specified directory for the specified watcher.
+	 * 
+	 * @param dir
+	 *            Any directory.
+	 * @param watcher
+	 *            The watcher that receives the events of the directory.
+	 * @throws IOException
+	 *             If the directory cannot be watched.
+	 */
+	void register(Path dir, ConfigurableWatchService watcher) throws IOException;
+
+	/**
+	 * Adds the specified watcher, so that its pending events are dispatched.
+	 * 
+	 * @param watcher
+	 *            Any watcher.
+	 */
+	void addWatcher(ConfigurableWatchService watcher);
+
+	/**
+	 * Removes the specified watcher and stops watching its directories.
+	 * 
+	 * @param watcher
+	 *            Any watcher.
+	 */
+	void removeWatcher(ConfigurableWatchService watcher);
+}
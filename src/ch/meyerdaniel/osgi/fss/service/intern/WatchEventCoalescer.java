@@ -0,0 +1,131 @@
+package ch.meyerdaniel.osgi.fss.service.intern;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class merges bursts of watch events into one net event per path. An
+ * event is released as soon as its path did not receive any further event for
+ * the configured quiet period.
+ * </p> The following sequences are merged:
+ * <ul>
+ * <li><code>CREATE, MODIFY</code> results in <code>CREATE</code>.</li>
+ * <li><code>CREATE, DELETE</code> results in no event at all.</li>
+ * <li><code>MODIFY, DELETE</code> results in <code>DELETE</code>.</li>
+ * <li><code>DELETE, CREATE</code> results in <code>MODIFY</code>.</li>
+ * </ul>
+ *
+ * This class is not thread safe and is meant to be used by the thread that
+ * polls the watch service.
+ *
+ * @author Daniel Meyer
+ */
+public class WatchEventCoalescer {
+
+	private final LinkedHashMap<Path, PendingEvent> pendingEvents = new LinkedHashMap<>();
+
+	private final long quietPeriod;
+
+	/**
+	 * @param quietPeriod
+	 *            The quiet period in milliseconds. A value of <code>0</code>
+	 *            releases every event immediately.
+	 */
+	public WatchEventCoalescer(long quietPeriod) {
+		this.quietPeriod = Math.max(0, quietPeriod);
+	}
+
+	/**
+	 * Adds the specified event and merges it with a pending event of the same
+	 * path.
+	 *
+	 * @param path
+	 *            The path of the event.
+	 * @param kind
+	 *            The kind of the event.
+	 * @param now
+	 *            The current time in milliseconds.
+	 */
+	public void add(Path path, WatchEvent.Kind<Path> kind, long now) {
+		PendingEvent pending = pendingEvents.remove(path);
+		WatchEvent.Kind<Path> netKind = pending == null ? kind : merge(pending.kind, kind);
+		if (netKind != null) {
+			/* Re-insert to keep the map ordered by the time of the last event */
+			pendingEvents.put(path, new PendingEvent(netKind, now + quietPeriod));
+		}
+	}
+
+	private static WatchEvent.Kind<Path> merge(WatchEvent.Kind<Path> previous, WatchEvent.Kind<Path> next) {
+		if (previous == ENTRY_CREATE) {
+			return next == ENTRY_DELETE ? null : ENTRY_CREATE;
+		} else if (previous == ENTRY_DELETE) {
+			return next == ENTRY_DELETE ? ENTRY_DELETE : ENTRY_MODIFY;
+		}
+		return next == ENTRY_DELETE ? ENTRY_DELETE : ENTRY_MODIFY;
+	}
+
+	/**
+	 * Removes and returns all events whose quiet period elapsed.
+	 *
+	 * @param now
+	 *            The current time in milliseconds.
+	 * @return The released events in the order of their last occurrence.
+	 */
+	public List<Map.Entry<Path, WatchEvent.Kind<Path>>> drain(long now) {
+		List<Map.Entry<Path, WatchEvent.Kind<Path>>> result = new ArrayList<>();
+		Iterator<Map.Entry<Path, PendingEvent>> iterator = pendingEvents.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Map.Entry<Path, PendingEvent> entry = iterator.next();
+			if (entry.getValue().deadline > now) {
+				break;
+			}
+			result.add(new SimpleImmutableEntry<>(entry.getKey(), entry.getValue().kind));
+			iterator.remove();
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the time in milliseconds until the next pending event will be
+	 * released.
+	 *
+	 * @param now
+	 *            The current time in milliseconds.
+	 * @return The remaining delay or <code>-1</code> if there are no pending
+	 *         events.
+	 */
+	public long getRemainingDelay(long now) {
+		if (pendingEvents.isEmpty()) {
+			return -1;
+		}
+		return Math.max(0, pendingEvents.values().iterator().next().deadline - now);
+	}
+
+	/**
+	 * @return <code>true</code> if there are no pending events.
+	 */
+	public boolean isEmpty() {
+		return pendingEvents.isEmpty();
+	}
+
+	private static final class PendingEvent {
+
+		private final WatchEvent.Kind<Path> kind;
+		private final long deadline;
+
+		private PendingEvent(WatchEvent.Kind<Path> kind, long deadline) {
+			this.kind = kind;
+			this.deadline = deadline;
+		}
+	}
+}
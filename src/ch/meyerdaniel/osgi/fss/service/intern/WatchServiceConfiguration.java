@@ -0,0 +1,88 @@
+package ch.meyerdaniel.osgi.fss.service.intern;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class holds the settings of one <code>watchservice</code> element of a
+ * watcher configuration file.
+ * 
+ * @author Daniel Meyer
+ * 
+ */
+public class WatchServiceConfiguration {
+
+	private final String name;
+	private final String relativePath;
+	private final String quietPeriod;
+	private final String parallelDiscovery;
+	private final String backend;
+	private final String pollInterval;
+	private String filterClassName;
+	private final List<String> patterns = new ArrayList<>();
+	private final List<String> excludes = new ArrayList<>();
+
+	/**
+	 * @param name
+	 *            The name of the watch service.
+	 * @param relativePath
+	 *            The relative path of the root directory.
+	 * @param quietPeriod
+	 *            The quiet period in milliseconds or <code>null</code>.
+	 * @param parallelDiscovery
+	 *            <code>true</code>, <code>false</code> or <code>null</code>.
+	 * @param backend
+	 *            <code>native</code>, <code>polling</code> or
+	 *            <code>null</code>.
+	 * @param pollInterval
+	 *            The poll interval in milliseconds or <code>null</code>.
+	 */
+	public WatchServiceConfiguration(String name, String relativePath, String quietPeriod, String parallelDiscovery, String backend, String pollInterval) {
+		this.name = name;
+		this.relativePath = relativePath;
+		this.quietPeriod = quietPeriod;
+		this.parallelDiscovery = parallelDiscovery;
+		this.backend = backend;
+		this.pollInterval = pollInterval;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getRelativePath() {
+		return relativePath;
+	}
+
+	public String getQuietPeriod() {
+		return quietPeriod;
+	}
+
+	public String getParallelDiscovery() {
+		return parallelDiscovery;
+	}
+
+	public String getBackend() {
+		return backend;
+	}
+
+	public String getPollInterval() {
+		return pollInterval;
+	}
+
+	public String getFilterClassName() {
+		return filterClassName;
+	}
+
+	void setFilterClassName(String filterClassName) {
+		this.filterClassName = filterClassName;
+	}
+
+	public List<String> getPatterns() {
+		return patterns;
+	}
+
+	public List<String> getExcludes() {
+		return excludes;
+	}
+}
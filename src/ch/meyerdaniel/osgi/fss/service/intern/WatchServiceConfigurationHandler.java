@@ -0,0 +1,92 @@
+package ch.meyerdaniel.osgi.fss.service.intern;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * This class reads watcher configuration files without building a document.
+ * </p> <b>Example:</b>
+ * 
+ * <pre>
+ * &lt;watchservices&gt;
+ *   &lt;watchservice name="Configs" relativePath="/conf" quietPeriod="500"&gt;
+ *     &lt;filter class="ch.meyerdaniel.osgi.fss.filter.DefaultFileFilter"&gt;
+ *       &lt;patterns&gt;&lt;pattern&gt;**&#47;*.cfg&lt;/pattern&gt;&lt;/patterns&gt;
+ *       &lt;excludes&gt;&lt;exclude&gt;**&#47;.git&lt;/exclude&gt;&lt;/excludes&gt;
+ *     &lt;/filter&gt;
+ *   &lt;/watchservice&gt;
+ *   &lt;watchservice name="Share" relativePath="/mnt/share" backend="polling" pollInterval="5000"&gt;
+ *     ...
+ *   &lt;/watchservice&gt;
+ * &lt;/watchservices&gt;
+ * </pre>
+ * 
+ * The attribute <code>backend</code> selects the native watch service
+ * (<code>native</code>, default) or polling (<code>polling</code>), see
+ * {@link PollingWatchBackend}.
+ * 
+ * @author Daniel Meyer
+ * 
+ */
+public class WatchServiceConfigurationHandler extends DefaultHandler {
+
+	private final List<WatchServiceConfiguration> configurations = new ArrayList<>();
+
+	private final StringBuilder text = new StringBuilder();
+
+	private WatchServiceConfiguration current;
+
+	private boolean inFilter;
+
+	@Override
+	public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
+		text.setLength(0);
+		String element = getName(localName, qName);
+		if ("watchservice".equals(element)) {
+			current = new WatchServiceConfiguration(attributes.getValue("name"), attributes.getValue("relativePath"), attributes.getValue("quietPeriod"), attributes.getValue("parallelDiscovery"),
+					attributes.getValue("backend"), attributes.getValue("pollInterval"));
+			configurations.add(current);
+		} else if ("filter".equals(element) && current != null) {
+			inFilter = true;
+			if (current.getFilterClassName() == null) {
+				current.setFilterClassName(attributes.getValue("class"));
+			}
+		}
+	}
+
+	@Override
+	public void characters(char[] ch, int start, int length) throws SAXException {
+		text.append(ch, start, length);
+	}
+
+	@Override
+	public void endElement(String uri, String localName, String qName) throws SAXException {
+		String element = getName(localName, qName);
+		if ("watchservice".equals(element)) {
+			current = null;
+		} else if ("filter".equals(element)) {
+			inFilter = false;
+		} else if (inFilter && "pattern".equals(element)) {
+			current.getPatterns().add(text.toString().trim());
+		} else if (inFilter && "exclude".equals(element)) {
+			current.getExcludes().add(text.toString().trim());
+		}
+		text.setLength(0);
+	}
+
+	private static String getName(String localName, String qName) {
+		return localName == null || localName.isEmpty() ? qName : localName;
+	}
+
+	/**
+	 * @return The configurations of all <code>watchservice</code> elements in
+	 *         document order.
+	 */
+	public List<WatchServiceConfiguration> getConfigurations() {
+		return configurations;
+	}
+}
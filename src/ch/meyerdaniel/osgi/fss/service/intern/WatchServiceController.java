@@ -1,50 +1,56 @@
 package ch.meyerdaniel.osgi.fss.service.intern;
 
-import static java.nio.file.StandardOpenOption.READ;
 import static java.util.Objects.requireNonNull;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.channels.Channels;
-import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.text.MessageFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.Objects;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.jar.Manifest;
 
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.BundleException;
 import org.osgi.framework.Constants;
 import org.osgi.framework.ServiceReference;
-import org.osgi.service.cm.ConfigurationException;
 import org.osgi.service.cm.ManagedService;
 import org.osgi.util.tracker.ServiceTracker;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.w3c.dom.Document;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 
+import ch.meyerdaniel.osgi.fss.api.DirectoryFilter;
 import ch.meyerdaniel.osgi.fss.api.FileFilter;
 import ch.meyerdaniel.osgi.fss.api.FileService;
 import ch.meyerdaniel.osgi.fss.filter.DefaultFileFilter;
-import ch.meyerdaniel.osgi.fss.util.XMLUtil;
+import ch.meyerdaniel.osgi.fss.util.JarUtil;
 
 /**
  * This class is used for managing file watchers and processing their events.
  * </p> The default file watcher monitors recursively the relative directory
  * <code>/load</code> and includes files ending with <code>*.xml</code>,
  * <code>*.properties</code>, <code>*.cfg</code> and <code>*.jar</code> for
- * further processing.
+ * further processing. The directories <code>.git</code>, <code>.svn</code>
+ * and <code>.hg</code> are not watched.
+ * </p> The fingerprints of processed files and the property file
+ * configurations are kept in a {@link StartupIndex} in the data area of the
+ * bundle, so that unchanged files are not processed again on a restart.
  * 
  * 
  * @author Daniel Meyer
@@ -54,13 +60,120 @@ public class WatchServiceController {
 
 	private static final Logger log = LoggerFactory.getLogger(WatchServiceController.class);
 
+	/**
+	 * Framework property for the default quiet period in milliseconds that is
+	 * used for merging bursts of events of the same file.
+	 */
+	public static final String QUIET_PERIOD_PROPERTY = "ch.meyerdaniel.osgi.fss.quietperiod";
+
+	private static final long DEFAULT_QUIET_PERIOD = 500;
+
+	private static final long MIN_REFRESH_DELAY = 1000;
+
+	/**
+	 * Framework property that enables the parallel discovery of the watched
+	 * directory trees.
+	 */
+	public static final String PARALLEL_DISCOVERY_PROPERTY = "ch.meyerdaniel.osgi.fss.discovery.parallel";
+
+	/**
+	 * Framework property that decides whether XML configurations are handed to
+	 * managed services as document (entry <code>xmlfile</code>). If
+	 * <code>false</code>, only the path (entry <code>xmlpath</code>) is
+	 * provided and services can stream the file with
+	 * {@link FileService#readXMLFile(Path, org.xml.sax.helpers.DefaultHandler)}.
+	 */
+	public static final String XML_DOCUMENTS_PROPERTY = "ch.meyerdaniel.osgi.fss.xml.documents";
+
+	/**
+	 * Framework property that selects how bundles are installed, one of
+	 * <code>stream</code> (default), <code>url</code> or
+	 * <code>reference</code>, see {@link BundleInstallMode}.
+	 */
+	public static final String BUNDLE_INSTALL_MODE_PROPERTY = "ch.meyerdaniel.osgi.fss.bundle.install";
+
+	/**
+	 * Framework property for the maximum number of threads that read and parse
+	 * configuration files.
+	 */
+	public static final String CONFIG_THREADS_PROPERTY = "ch.meyerdaniel.osgi.fss.executor.configs";
+
+	/**
+	 * Framework property for the maximum number of threads that deliver
+	 * configurations to managed services.
+	 */
+	public static final String DELIVERY_THREADS_PROPERTY = "ch.meyerdaniel.osgi.fss.executor.delivery";
+
+	/**
+	 * Framework property that enables a virtual thread per delivery if
+	 * supported by the runtime.
+	 */
+	public static final String DELIVERY_VIRTUAL_THREADS_PROPERTY = "ch.meyerdaniel.osgi.fss.executor.delivery.virtual";
+
+	/**
+	 * Framework property for the maximum number of threads that install and
+	 * uninstall bundles.
+	 */
+	public static final String BUNDLE_THREADS_PROPERTY = "ch.meyerdaniel.osgi.fss.executor.bundles";
+
+	/**
+	 * Framework property for the maximum number of waiting tasks per executor.
+	 * If the limit is reached, the submitting thread runs the task itself.
+	 */
+	public static final String QUEUE_CAPACITY_PROPERTY = "ch.meyerdaniel.osgi.fss.executor.queue";
+
+	private static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+	/**
+	 * Framework property for the default interval in milliseconds of watchers
+	 * that poll instead of using the native watch service.
+	 */
+	public static final String POLL_INTERVAL_PROPERTY = "ch.meyerdaniel.osgi.fss.poll.interval";
+
+	private static final long DEFAULT_POLL_INTERVAL = 2000;
+
+	private static final String STARTUP_INDEX_FILE = "startup.index";
+
 	private final ConcurrentHashMap</* Service PID */String, Set<ManagedService>> managedServices;
 
 	private final ConcurrentHashMap</* Service PID */String, Properties> configurations;
 
-	private final ConcurrentHashMap</* Path */String, Future<Boolean>> watchServices;
+	private final ConcurrentHashMap</* Service PID */String, Path> configurationFiles;
+
+	private final ConcurrentHashMap</* Path */String, ConfigurableWatchService> watchServices;
+
+	private final WatchServiceDispatcher dispatcher;
+
+	private final ExecutorService watcherExecutor;
+
+	private final ScheduledExecutorService pollingScheduler;
 
-	private final ExecutorService executor;
+	private final ExecutorService configExecutor;
+
+	private final ExecutorService deliveryExecutor;
+
+	private final ManagedServiceDelivery delivery;
+
+	private final ExecutorService bundleExecutor;
+
+	private final KeyedSerialExecutor configProcessor;
+
+	private final KeyedSerialExecutor bundleProcessor;
+
+	/**
+	 * The jars of running batch installs with the tasks of their events that
+	 * arrived meanwhile. The tasks are handed to the {@link #bundleProcessor}
+	 * as soon as the batch is done.
+	 */
+	private final Map</* Jar */Path, List<Runnable>> batchedBundles;
+
+	private final FileFingerprintCache fingerprints;
+
+	private final FileFingerprintCache bundleFingerprints;
+
+	private final BundleRefresher bundleRefresher;
+
+	private final StartupIndex startupIndex;
 
 	private BundleContext context;
 
@@ -68,24 +181,76 @@ public class WatchServiceController {
 
 	private final FileService fileService;
 
+	private final long quietPeriod;
+
+	private final boolean parallelDiscovery;
+
+	private final boolean xmlDocuments;
+
+	private final BundleInstallMode bundleInstallMode;
+
+	private final ForkJoinPool discoveryPool;
+
+	private final long pollInterval;
+
 	/**
 	 * @param context
 	 *            Is used for setting up service trackers.
 	 * @param fileService
 	 *            Is used for reading files.
+	 * @throws IOException
+	 *             If the shared watch service cannot be created.
 	 */
-	public WatchServiceController(BundleContext context, FileService fileService) {
+	public WatchServiceController(BundleContext context, FileService fileService) throws IOException {
 		this.context = context;
 		this.fileService = fileService;
 		watchServices = new ConcurrentHashMap<>();
 		configurations = new ConcurrentHashMap<>();
+		configurationFiles = new ConcurrentHashMap<>();
 		managedServices = new ConcurrentHashMap<>();
-		executor = Executors.newCachedThreadPool();
+		int processors = Runtime.getRuntime().availableProcessors();
+		int queueCapacity = (int) getLongProperty(QUEUE_CAPACITY_PROPERTY, DEFAULT_QUEUE_CAPACITY);
+		watcherExecutor = ThreadPools.newBoundedExecutor("fss-watcher", 1, 0);
+		pollingScheduler = ThreadPools.newSingleThreadScheduledExecutor("fss-poll");
+		configExecutor = ThreadPools.newBoundedExecutor("fss-config", (int) getLongProperty(CONFIG_THREADS_PROPERTY, processors), queueCapacity);
+		bundleExecutor = ThreadPools.newBoundedExecutor("fss-bundle", (int) getLongProperty(BUNDLE_THREADS_PROPERTY, processors), queueCapacity);
+		deliveryExecutor = newDeliveryExecutor(processors, queueCapacity);
+		delivery = new ManagedServiceDelivery(deliveryExecutor);
+		configProcessor = new KeyedSerialExecutor(configExecutor);
+		bundleProcessor = new KeyedSerialExecutor(bundleExecutor);
+		batchedBundles = new HashMap<>();
+		fingerprints = new FileFingerprintCache();
+		bundleFingerprints = new FileFingerprintCache();
+		quietPeriod = getLongProperty(QUIET_PERIOD_PROPERTY, DEFAULT_QUIET_PERIOD);
+		pollInterval = getLongProperty(POLL_INTERVAL_PROPERTY, DEFAULT_POLL_INTERVAL);
+		parallelDiscovery = !"false".equalsIgnoreCase(context.getProperty(PARALLEL_DISCOVERY_PROPERTY));
+		xmlDocuments = !"false".equalsIgnoreCase(context.getProperty(XML_DOCUMENTS_PROPERTY));
+		bundleInstallMode = BundleInstallMode.parse(context.getProperty(BUNDLE_INSTALL_MODE_PROPERTY));
+		discoveryPool = new ForkJoinPool();
+		bundleRefresher = new BundleRefresher(context, Math.max(quietPeriod, MIN_REFRESH_DELAY));
+		File indexFile = context.getDataFile(STARTUP_INDEX_FILE);
+		startupIndex = indexFile == null ? null : new StartupIndex(indexFile.toPath(), fingerprints, bundleFingerprints, configurations, configurationFiles);
+		if (startupIndex != null) {
+			startupIndex.load(fileService.getFileSystem());
+		}
+		dispatcher = new WatchServiceDispatcher(fileService.newWatchService());
+		watcherExecutor.submit(dispatcher);
 
 		installManagedServiceTracker();
 		installDefaultWatcher();
 	}
 
+	private ExecutorService newDeliveryExecutor(int processors, int queueCapacity) {
+		if (Boolean.parseBoolean(context.getProperty(DELIVERY_VIRTUAL_THREADS_PROPERTY))) {
+			ExecutorService virtualExecutor = ThreadPools.newVirtualThreadPerTaskExecutor();
+			if (virtualExecutor != null) {
+				return virtualExecutor;
+			}
+			log.warn("Virtual threads are not supported by this runtime, using a bounded executor for deliveries.");
+		}
+		return ThreadPools.newBoundedExecutor("fss-delivery", (int) getLongProperty(DELIVERY_THREADS_PROPERTY, 2 * processors), queueCapacity);
+	}
+
 	private void installManagedServiceTracker() {
 		managedServiceTracker = new ServiceTracker(context, ManagedService.class.getName(), null) {
 
@@ -114,36 +279,215 @@ public class WatchServiceController {
 
 	private void installDefaultWatcher() {
 		try {
-			FileFilter fileFilter = new DefaultFileFilter();
+			DirectoryFilter fileFilter = new DefaultFileFilter();
 			fileFilter.addFilePattern("**/*.properties");
 			fileFilter.addFilePattern("**/*.cfg");
 			fileFilter.addFilePattern("**/*.xml");
 			fileFilter.addFilePattern("**/*.jar");
-			executor.submit(new ConfigurableWatchService("Watcher for /load", fileService.newWatchService(), WatchServiceController.this, fileService.getFileSystem().getPath(".", "/load"), fileFilter).init());
+			fileFilter.addExcludedDirectoryPattern("**/.{git,svn,hg}");
+			ConfigurableWatchService watchService = new ConfigurableWatchService("Watcher for /load", dispatcher, WatchServiceController.this, fileService.getFileSystem().getPath(".", "/load"), fileFilter);
+			watchService.setQuietPeriod(quietPeriod);
+			watchService.setParallelDiscovery(parallelDiscovery);
+			watchService.init();
 		} catch (IOException e) {
 			log.error("", e);
 		}
 	}
 
 	/**
-	 * Processes the specified file.
+	 * Processes the specified file asynchronously. Events of files that share
+	 * the same service pid are processed in the order of their submission.
 	 * 
 	 * @param filePath
 	 *            Any supported file.
+	 * @return A future representing the pending processing of the file.
 	 */
-	public synchronized void processFile(Path filePath) {
+	public Future<?> processFile(final Path filePath) {
+		return submit(filePath, new Runnable() {
+
+			@Override
+			public void run() {
+				processFileInOrder(filePath);
+			}
+		});
+	}
+
+	private Future<?> submit(Path filePath, Runnable task) {
+		if (!filePath.getFileName().toString().endsWith(".jar")) {
+			return submit(configProcessor, filePath, task);
+		}
+		synchronized (batchedBundles) {
+			List<Runnable> deferred = batchedBundles.get(filePath);
+			if (deferred != null) {
+				log.debug(MessageFormat.format("Defer bundle {0} until its batch is installed.", filePath));
+				FutureTask<Void> future = new FutureTask<>(task, null);
+				deferred.add(future);
+				return future;
+			}
+			return submit(bundleProcessor, filePath, task);
+		}
+	}
+
+	private Future<?> submit(KeyedSerialExecutor processor, Path filePath, Runnable task) {
+		try {
+			return processor.submit(getProcessingKey(filePath), task);
+		} catch (RejectedExecutionException e) {
+			log.debug(MessageFormat.format("Controller is stopped, ignore {0}.", filePath));
+			return null;
+		}
+	}
+
+	/**
+	 * Processes the specified files of an initial discovery asynchronously.
+	 * Bundles are processed first as one batch, see
+	 * {@link BundleBatchInstaller}. The remaining files are processed in the
+	 * specified order as soon as all bundles are started. Events of the jars
+	 * of the batch are processed after the batch.
+	 * 
+	 * @param filePaths
+	 *            Any supported files.
+	 */
+	public void processFiles(List<Path> filePaths) {
+		final List<Path> bundles = new ArrayList<>();
+		final List<Path> others = new ArrayList<>();
+		List<Path> batchedElsewhere = new ArrayList<>();
+		synchronized (batchedBundles) {
+			for (Path filePath : filePaths) {
+				if (!filePath.getFileName().toString().endsWith(".jar")) {
+					others.add(filePath);
+				} else if (batchedBundles.containsKey(filePath)) {
+					batchedElsewhere.add(filePath);
+				} else {
+					batchedBundles.put(filePath, new ArrayList<Runnable>());
+					bundles.add(filePath);
+				}
+			}
+		}
+		/* Jars of another running batch are processed after that batch */
+		for (Path filePath : batchedElsewhere) {
+			processFile(filePath);
+		}
+
+		if (bundles.isEmpty()) {
+			for (Path filePath : others) {
+				processFile(filePath);
+			}
+			return;
+		}
+
+		Runnable batch = new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					new BundleBatchInstaller(context, discoveryPool).installAndStart(bundles, new BundleBatchInstaller.Installer() {
+
+						@Override
+						public Bundle install(Path jar) {
+							return Files.exists(jar) ? installBundle(jar) : null;
+						}
+					});
+				} finally {
+					releaseBatchedBundles(bundles);
+					for (Path filePath : others) {
+						processFile(filePath);
+					}
+				}
+			}
+		};
+		try {
+			bundleExecutor.execute(batch);
+		} catch (RejectedExecutionException e) {
+			if (bundleExecutor.isShutdown()) {
+				log.debug("Controller is stopped, ignore discovered files.");
+				releaseBatchedBundles(bundles);
+				return;
+			}
+			/* The executor is saturated, apply backpressure to the discovering thread */
+			batch.run();
+		}
+	}
+
+	/**
+	 * Hands the deferred events of the specified jars to the
+	 * {@link #bundleProcessor}. The lock is held until all tasks are
+	 * submitted, so that new events cannot overtake them.
+	 */
+	private void releaseBatchedBundles(List<Path> bundles) {
+		synchronized (batchedBundles) {
+			for (Path bundle : bundles) {
+				for (Runnable task : batchedBundles.remove(bundle)) {
+					submit(bundleProcessor, bundle, task);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the pool that is used for discovering directory trees in
+	 * parallel.
+	 * 
+	 * @return The discovery pool.
+	 */
+	public ForkJoinPool getDiscoveryPool() {
+		return discoveryPool;
+	}
+
+	private void processFileInOrder(Path filePath) {
 		if (Files.exists(filePath)) {
 			String fileName = filePath.getName(filePath.getNameCount() - 1).toString();
 			if (fileName.endsWith(".cfg") || fileName.endsWith(".properties")) {
-				processJavaPropertyFile(filePath, getServicePid(fileName));
+				if (isChanged(filePath)) {
+					processJavaPropertyFile(filePath, getServicePid(fileName));
+				}
 			} else if (fileName.endsWith(".xml")) {
-				processXMLConfigurationFile(filePath, getServicePid(fileName));
+				if (isChanged(filePath)) {
+					processXMLConfigurationFile(filePath, getServicePid(fileName));
+				}
 			} else if (fileName.endsWith(".jar")) {
 				processBundle(filePath);
 			}
+			scheduleIndexWrite();
 		}
 	}
 
+	private void scheduleIndexWrite() {
+		if (startupIndex != null) {
+			startupIndex.scheduleWrite();
+		}
+	}
+
+	private boolean isChanged(Path configFile) {
+		try {
+			if (!fingerprints.update(configFile)) {
+				log.debug(MessageFormat.format("Skip unchanged file {0}.", configFile));
+				return false;
+			}
+		} catch (IOException e) {
+			log.debug(MessageFormat.format("Could not fingerprint file {0}.", configFile), e);
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the delivery of configurations to managed services.
+	 * 
+	 * @return The delivery including its queue depth and drop counters.
+	 */
+	public ManagedServiceDelivery getDelivery() {
+		return delivery;
+	}
+
+	/**
+	 * Returns the cache that is used for skipping configuration files whose
+	 * content did not change.
+	 * 
+	 * @return The fingerprint cache including its hit and miss counters.
+	 */
+	public FileFingerprintCache getFingerprintCache() {
+		return fingerprints;
+	}
+
 	private void processJavaPropertyFile(Path configFile, String servicePid) {
 		log.debug(MessageFormat.format("Process Java property file configuration with service pid: {0}.", servicePid));
 
@@ -160,7 +504,7 @@ public class WatchServiceController {
 					try {
 						FileFilter fileFilter = new DefaultFileFilter();
 						fileFilter.addFilePattern(prop.getProperty("felix.fileinstall.filter"));
-						initalizeWatcher("FileInstall", configFile, fileService.getFileSystem().getPath(".", prop.getProperty("felix.fileinstall.dir")), fileFilter);
+						initalizeWatcher("FileInstall", configFile, fileService.getFileSystem().getPath(".", prop.getProperty("felix.fileinstall.dir")), fileFilter, quietPeriod, parallelDiscovery, dispatcher);
 					} catch (IOException e) {
 						log.error("", e);
 					}
@@ -169,35 +513,66 @@ public class WatchServiceController {
 		} /* Configuration for managed services */else {
 			if (!prop.isEmpty()) {
 				try {
-					prop.put("lastmodifiedtime", Files.getLastModifiedTime(configFile));
+					prop.put(ConfigurationDiff.LAST_MODIFIED_TIME, Files.getLastModifiedTime(configFile));
 				} catch (IOException e) {
 					log.error("", e);
 				}
 			}
 
-			configurations.put(servicePid, prop);
+			Properties previous = configurations.put(servicePid, prop);
+			configurationFiles.put(servicePid, configFile);
 
-			if (managedServices.containsKey(servicePid)) {
-				for (final ManagedService service : managedServices.get(servicePid)) {
-					executor.submit(new Runnable() {
+			if (ConfigurationDiff.isUnchanged(previous, prop)) {
+				log.debug(MessageFormat.format("Configuration with service pid {0} did not change.", servicePid));
+				return;
+			}
 
-						@Override
-						public void run() {
-							try {
-								service.updated((Properties) prop.clone());
-							} catch (ConfigurationException e) {
-								log.error("", e);
-							}
-						}
-					});
+			if (managedServices.containsKey(servicePid)) {
+				for (ManagedService service : managedServices.get(servicePid)) {
+					delivery.deliver(service, servicePid, (Properties) prop.clone());
 				}
 			}
 		}
 	}
 
-	private void initalizeWatcher(String name, Path configFile, Path root, FileFilter fileFilter) throws IOException {
+	private void initalizeWatcher(String name, Path configFile, Path root, FileFilter fileFilter, long quietPeriod, boolean parallelDiscovery, WatchBackend backend) throws IOException {
 		terminateFileWatcherIdentifiedByConfigFile(configFile.getFileName().toString());
-		watchServices.put(configFile.getFileName().toString(), executor.submit(new ConfigurableWatchService(name, fileService.newWatchService(), this, root, fileFilter).init()));
+		ConfigurableWatchService watchService = new ConfigurableWatchService(name, backend, this, root, fileFilter);
+		watchService.setQuietPeriod(quietPeriod);
+		watchService.setParallelDiscovery(parallelDiscovery);
+		watchService.init();
+		watchServices.put(configFile.getFileName().toString(), watchService);
+	}
+
+	private WatchBackend getBackend(WatchServiceConfiguration serviceConfiguration) {
+		String backend = serviceConfiguration.getBackend();
+		if ("polling".equalsIgnoreCase(backend)) {
+			return new PollingWatchBackend(pollingScheduler, getLongAttribute(serviceConfiguration.getName(), "pollInterval", serviceConfiguration.getPollInterval(), pollInterval, 1));
+		}
+		if (backend != null && !"native".equalsIgnoreCase(backend)) {
+			log.warn(MessageFormat.format("Unknown backend {0} for attribute backend of watch service {1}, using native.", backend, serviceConfiguration.getName()));
+		}
+		return dispatcher;
+	}
+
+	/**
+	 * Parses an attribute of a watch service element. An invalid value is
+	 * logged and replaced by the default, so it does not prevent the other
+	 * watch services of the same file from starting.
+	 */
+	private long getLongAttribute(String name, String attribute, String value, long defaultValue, long minimum) {
+		if (value != null) {
+			try {
+				long parsed = Long.parseLong(value.trim());
+				if (parsed >= minimum) {
+					return parsed;
+				}
+			} catch (NumberFormatException e) {
+				// fall through
+			}
+			log.warn(MessageFormat.format("Invalid value {0} for attribute {1} of watch service {2}, using {3}.", value, attribute, name, defaultValue));
+		}
+		return defaultValue;
 	}
 
 	@SuppressWarnings("unchecked")
@@ -206,17 +581,20 @@ public class WatchServiceController {
 		if (/* Watcher Configuration */servicePid.startsWith("ch.meyerdaniel.osgi.fss")) {
 
 			try {
-				Document doc = fileService.readXMLFile(configFile);
-				NodeList result = XMLUtil.getNodeList(doc, "//watchservice");
-
-				requireNonNull(result, "Element watchservice is missing.");
+				WatchServiceConfigurationHandler handler = new WatchServiceConfigurationHandler();
+				fileService.readXMLFile(configFile, handler);
+				List<WatchServiceConfiguration> result = handler.getConfigurations();
 
-				for (int i = 0; i < result.getLength(); i++) {
-					Node serviceNode = result.item(i);
+				if (result.isEmpty()) {
+					throw new IllegalArgumentException("Element watchservice is missing.");
+				}
 
-					String name = XMLUtil.getAttributeValue(serviceNode, "name");
-					String relativePath = XMLUtil.getAttributeValue(serviceNode, "relativePath");
-					String filterClassName = XMLUtil.getAttributeValue(XMLUtil.getUniqueNode(serviceNode, "//filter"), "class");
+				for (WatchServiceConfiguration serviceConfiguration : result) {
+					String name = serviceConfiguration.getName();
+					String relativePath = serviceConfiguration.getRelativePath();
+					String filterClassName = serviceConfiguration.getFilterClassName();
+					String quietPeriodAsString = serviceConfiguration.getQuietPeriod();
+					String parallelDiscoveryAsString = serviceConfiguration.getParallelDiscovery();
 
 					requireNonNull(name, "Name of watch service is missing.");
 					requireNonNull(relativePath, "Relative path is missing.");
@@ -242,17 +620,20 @@ public class WatchServiceController {
 
 					FileFilter fileFilter = filterClass.newInstance();
 
-					NodeList filterList = XMLUtil.getNodeList(serviceNode, "//filter/patterns/pattern");
-
-					for (int k = 0; k < filterList.getLength(); k++) {
-						String pattern = XMLUtil.getTextContent(filterList.item(k));
-
-						Objects.requireNonNull(pattern, k + ". pattern is null.");
+					for (String pattern : serviceConfiguration.getPatterns()) {
 						fileFilter.addFilePattern(pattern);
+					}
 
+					for (String pattern : serviceConfiguration.getExcludes()) {
+						if (fileFilter instanceof DirectoryFilter) {
+							((DirectoryFilter) fileFilter).addExcludedDirectoryPattern(pattern);
+						} else {
+							log.warn(MessageFormat.format("Filter {0} does not support excluded directories, ignore {1}.", filterClassName, pattern));
+						}
 					}
 
-					initalizeWatcher(name, configFile, fileService.getFileSystem().getPath(".", relativePath), fileFilter);
+					initalizeWatcher(name, configFile, fileService.getFileSystem().getPath(".", relativePath), fileFilter, getLongAttribute(name, "quietPeriod", quietPeriodAsString, quietPeriod, 0),
+							parallelDiscoveryAsString == null ? parallelDiscovery : Boolean.parseBoolean(parallelDiscoveryAsString), getBackend(serviceConfiguration));
 				}
 			} catch (Exception e) {
 				log.error("", e);
@@ -261,26 +642,19 @@ public class WatchServiceController {
 		} /* Configuration for managed services */else {
 
 			try {
-				Document doc = fileService.readXMLFile(configFile);
 				final Properties prop = new Properties();
-				prop.put("lastmodifiedtime", Files.getLastModifiedTime(configFile));
-				prop.put("xmlfile", doc);
+				prop.put(ConfigurationDiff.LAST_MODIFIED_TIME, Files.getLastModifiedTime(configFile));
+				prop.put("xmlpath", configFile);
+				if (xmlDocuments) {
+					prop.put("xmlfile", fileService.readXMLFile(configFile));
+				}
 
 				configurations.put(servicePid, prop);
+				configurationFiles.remove(servicePid);
 
 				if (managedServices.containsKey(servicePid)) {
-					for (final ManagedService service : managedServices.get(servicePid)) {
-						executor.submit(new Runnable() {
-
-							@Override
-							public void run() {
-								try {
-									service.updated(prop);
-								} catch (ConfigurationException e) {
-									log.error("", e);
-								}
-							}
-						});
+					for (ManagedService service : managedServices.get(servicePid)) {
+						delivery.deliver(service, servicePid, prop);
 					}
 				}
 			} catch (Exception e) {
@@ -290,64 +664,199 @@ public class WatchServiceController {
 	}
 
 	private void processBundle(Path child) {
+		if (BundleBatchInstaller.readBundleManifest(child) == null) {
+			return;
+		}
+		Bundle bundle = installBundle(child);
+		if (bundle != null) {
+			try {
+				bundle.start();
+			} catch (BundleException e) {
+				log.error("", e);
+			}
+		}
+	}
+
+	/**
+	 * Installs the specified jar without starting it. An installed bundle with
+	 * the same location is updated instead.
+	 * 
+	 * @return The bundle to start, i.e. the newly installed bundle or the
+	 *         installed bundle if it is not started and no fragment,
+	 *         <code>null</code> if nothing has to be started.
+	 */
+	private Bundle installBundle(Path child) {
 		log.debug(MessageFormat.format("Process bundle {0}.", child));
 
-		try (InputStream is = Channels.newInputStream(FileChannel.open(child, READ))) {
-			context.installBundle(child.getFileName().toString(), is).start();
+		String location = bundleInstallMode.getLocation(child);
+		Bundle installed = getInstalledBundle(location);
+		if (installed != null) {
+			updateBundle(child, installed);
+			return isStartable(installed) ? installed : null;
+		}
+
+		if (bundleInstallMode.isInstalledByLocation()) {
+			try {
+				Bundle bundle = context.installBundle(location);
+				recordBundleFingerprint(child);
+				return bundle;
+			} catch (BundleException e) {
+				log.error("", e);
+			}
+			return null;
+		}
+
+		try (InputStream is = openBundle(child)) {
+			Bundle bundle = context.installBundle(location, is);
+			recordBundleFingerprint(child);
+			return bundle;
 		} catch (IOException e) {
 			// do nothing
 		} catch (BundleException e) {
 			log.error("", e);
 		}
+		return null;
+	}
+
+	/**
+	 * A bundle that was installed before, e.g. in an earlier run of the
+	 * framework, is started unless it is active, being started or a fragment.
+	 */
+	private static boolean isStartable(Bundle bundle) {
+		if ((bundle.getState() & (Bundle.ACTIVE | Bundle.STARTING | Bundle.UNINSTALLED)) != 0) {
+			return false;
+		}
+		return bundle.getHeaders().get(Constants.FRAGMENT_HOST) == null;
+	}
+
+	private void updateBundle(Path child, Bundle installed) {
+		try {
+			if (!isBundleChanged(child, installed)) {
+				log.debug(MessageFormat.format("Skip unchanged bundle {0}.", child));
+				return;
+			}
+			log.debug(MessageFormat.format("Update bundle {0}.", child));
+			if (bundleInstallMode.isInstalledByLocation()) {
+				installed.update();
+			} else {
+				try (InputStream is = openBundle(child)) {
+					installed.update(is);
+				}
+			}
+			bundleRefresher.add(installed);
+		} catch (IOException e) {
+			bundleFingerprints.remove(child);
+			log.debug(MessageFormat.format("Could not read bundle {0}.", child), e);
+		} catch (BundleException e) {
+			bundleFingerprints.remove(child);
+			log.error("", e);
+		}
 	}
 
 	/**
-	 * Processes the specified deleted file.
+	 * Opens a stream of the specified jar. Jars are streamed instead of being
+	 * mapped, since the framework reads the stream for a while: a mapped jar
+	 * that is rewritten meanwhile crashes the reading thread and on Windows a
+	 * mapped jar cannot be replaced until the mapping is garbage collected.
+	 * Streaming also keeps parallel installs from holding whole jars on the
+	 * heap.
+	 */
+	private static InputStream openBundle(Path child) throws IOException {
+		return Files.newInputStream(child);
+	}
+
+	/**
+	 * A jar is changed if its checksum differs from the one seen last time.
+	 * For a jar that was installed before this controller started, the
+	 * manifest version and the modification time are compared with the
+	 * installed bundle instead.
+	 */
+	private boolean isBundleChanged(Path child, Bundle installed) throws IOException {
+		boolean known = bundleFingerprints.contains(child);
+		boolean changed = bundleFingerprints.update(child);
+		if (known) {
+			return changed;
+		}
+		if (Files.getLastModifiedTime(child).toMillis() > installed.getLastModified()) {
+			return true;
+		}
+		Manifest manifest = JarUtil.readManifest(child);
+		String version = manifest == null ? null : manifest.getMainAttributes().getValue(Constants.BUNDLE_VERSION);
+		Object installedVersion = installed.getHeaders().get(Constants.BUNDLE_VERSION);
+		return version == null ? installedVersion != null : !version.equals(installedVersion);
+	}
+
+	private void recordBundleFingerprint(Path child) {
+		try {
+			bundleFingerprints.update(child);
+		} catch (IOException e) {
+			bundleFingerprints.remove(child);
+		}
+	}
+
+	private Bundle getInstalledBundle(String location) {
+		for (Bundle bundle : context.getBundles()) {
+			if (bundle.getLocation().equals(location)) {
+				return bundle;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Processes the specified deleted file asynchronously, see
+	 * {@link #processFile(Path)} for the ordering guarantees.
 	 * 
 	 * @param child
 	 *            Any supported and deleted file.
+	 * @return A future representing the pending processing of the file.
 	 */
-	public synchronized void processDeletedFile(Path child) {
+	public Future<?> processDeletedFile(final Path child) {
+		return submit(child, new Runnable() {
+
+			@Override
+			public void run() {
+				processDeletedFileInOrder(child);
+			}
+		});
+	}
+
+	private void processDeletedFileInOrder(Path child) {
 		String fileName = child.getName(child.getNameCount() - 1).toString();
+		fingerprints.remove(child);
 
 		if (fileName.endsWith(".cfg") || fileName.endsWith(".properties")) {
 			processDeletedJavaPropertyFile(child, fileName);
 		} else if (fileName.endsWith(".jar")) {
 			processDeletedBundle(child);
 		}
+		scheduleIndexWrite();
 	}
 
 	private void processDeletedJavaPropertyFile(Path child, String fileName) {
 		String servicePid = getServicePid(fileName);
+		configurationFiles.remove(servicePid, child);
+		/* Forget the configuration, so that a recreated file with the same content is delivered again */
+		configurations.remove(servicePid);
 
 		if (servicePid.startsWith("ch.meyerdaniel.osgi.fs") || servicePid.startsWith("org.apache.felix.fileinstall")) {
 			terminateFileWatcherIdentifiedByConfigFile(child.getFileName().toString());
 		} else if (managedServices.containsKey(servicePid)) {
-			for (final ManagedService service : managedServices.get(servicePid)) {
-				executor.submit(new Runnable() {
-
-					@Override
-					public void run() {
-						try {
-							service.updated(null);
-						} catch (ConfigurationException e) {
-							log.error("", e);
-						}
-					}
-				});
+			for (ManagedService service : managedServices.get(servicePid)) {
+				delivery.deliver(service, servicePid, null);
 			}
 		}
 	}
 
 	private void processDeletedBundle(Path child) {
-		for (Bundle bundle : context.getBundles()) {
-			if (bundle.getLocation().equals(child.getFileName().toString())) {
-				try {
-					bundle.uninstall();
-				} catch (BundleException e) {
-					log.error("", e);
-				}
-				break;
+		bundleFingerprints.remove(child);
+		Bundle bundle = getInstalledBundle(bundleInstallMode.getLocation(child));
+		if (bundle != null) {
+			try {
+				bundle.uninstall();
+				bundleRefresher.add(bundle);
+			} catch (BundleException e) {
+				log.error("", e);
 			}
 		}
 	}
@@ -355,16 +864,33 @@ public class WatchServiceController {
 	private void terminateFileWatcherIdentifiedByConfigFile(String fileName) {
 		if (watchServices.containsKey(fileName)) {
 			log.debug(MessageFormat.format("Stop file watcher based on configuration file {0}.", fileName));
-			watchServices.remove(fileName).cancel(true);
+			watchServices.remove(fileName).shutdown();
 			log.debug(MessageFormat.format("Currently active watchers are {0}.", Arrays.toString(watchServices.keySet().toArray())));
 		}
 	}
 
+	private long getLongProperty(String key, long defaultValue) {
+		String value = context.getProperty(key);
+		if (value != null) {
+			try {
+				return Long.parseLong(value.trim());
+			} catch (NumberFormatException e) {
+				log.warn(MessageFormat.format("Invalid value {0} for property {1}, using {2}.", value, key, defaultValue));
+			}
+		}
+		return defaultValue;
+	}
+
+	private String getProcessingKey(Path filePath) {
+		String fileName = filePath.getFileName().toString();
+		return fileName.lastIndexOf(".") == -1 ? fileName : getServicePid(fileName);
+	}
+
 	private String getServicePid(String fileName) {
 		return fileName.substring(0, fileName.lastIndexOf("."));
 	}
 
-	private void registerManagedServiceAndNotify(final ManagedService service, final String servicePid) {
+	private void registerManagedServiceAndNotify(ManagedService service, String servicePid) {
 		log.debug(MessageFormat.format("Register managed service with service pid: {0}.", servicePid));
 		Set<ManagedService> services = managedServices.get(servicePid);
 		if (services == null) {
@@ -374,22 +900,12 @@ public class WatchServiceController {
 		services.add(service);
 
 		if (configurations.containsKey(servicePid)) {
-			executor.submit(new Runnable() {
-
-				@Override
-				public void run() {
-					try {
-						service.updated(configurations.get(servicePid));
-						log.debug(MessageFormat.format("Updated service with pid {0} of class {1}.", servicePid, service.getClass().getName()));
-					} catch (ConfigurationException e) {
-						log.error("", e);
-					}
-				}
-			});
+			delivery.deliver(service, servicePid, configurations.get(servicePid));
 		}
 	}
 
 	private void removeManagedService(ManagedService service) {
+		delivery.remove(service);
 		for (Set<ManagedService> services : managedServices.values()) {
 			if (services.contains(service)) {
 				services.remove(service);
@@ -405,8 +921,21 @@ public class WatchServiceController {
 	 * Stops this controller.
 	 */
 	public void shutdown() {
-		executor.shutdownNow();
+		if (startupIndex != null) {
+			startupIndex.shutdown();
+		}
+		dispatcher.close();
+		watcherExecutor.shutdownNow();
+		pollingScheduler.shutdownNow();
+		configExecutor.shutdownNow();
+		bundleExecutor.shutdownNow();
+		deliveryExecutor.shutdownNow();
+		discoveryPool.shutdownNow();
+		bundleRefresher.shutdown();
 		configurations.clear();
+		configurationFiles.clear();
+		fingerprints.clear();
+		bundleFingerprints.clear();
 		managedServices.clear();
 		managedServiceTracker.close();
 		context = null;
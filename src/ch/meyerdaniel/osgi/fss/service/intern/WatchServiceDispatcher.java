@@ -0,0 +1,205 @@
+package ch.meyerdaniel.osgi.fss.service.intern;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.text.MessageFormat;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class is the native {@link WatchBackend}. It owns one watch service
+ * that is shared by all {@link ConfigurableWatchService}s. A single thread
+ * waits for signalled keys and routes their events to the watchers that
+ * registered the directory. So the number of threads does not depend on the
+ * number of configured watchers.
+ *
+ * @author Daniel Meyer
+ *
+ */
+public class WatchServiceDispatcher implements WatchBackend, Runnable {
+
+	private static final Logger log = LoggerFactory.getLogger(WatchServiceDispatcher.class);
+
+	private final WatchService watchService;
+
+	private final ConcurrentHashMap<WatchKey, List<ConfigurableWatchService>> listeners;
+
+	private final Set<ConfigurableWatchService> watchers;
+
+	/**
+	 * @param watchService
+	 *            The shared watch service.
+	 */
+	public WatchServiceDispatcher(WatchService watchService) {
+		this.watchService = watchService;
+		listeners = new ConcurrentHashMap<>();
+		watchers = Collections.newSetFromMap(new ConcurrentHashMap<ConfigurableWatchService, Boolean>());
+	}
+
+	@Override
+	public void addWatcher(ConfigurableWatchService watcher) {
+		watchers.add(watcher);
+	}
+
+	/**
+	 * Removes the specified watcher and cancels any keys that are no longer
+	 * used by other watchers.
+	 *
+	 * @param watcher
+	 *            Any watcher.
+	 */
+	@Override
+	public void removeWatcher(ConfigurableWatchService watcher) {
+		watchers.remove(watcher);
+		for (WatchKey key : listeners.keySet()) {
+			unregister(key, watcher);
+		}
+	}
+
+	/**
+	 * Registers the specified directory for the specified watcher. A directory
+	 * that is watched by several watchers shares the same key.
+	 *
+	 * @param dir
+	 *            Any directory.
+	 * @param watcher
+	 *            The watcher that receives the events of the directory.
+	 * @throws IOException
+	 *             {@link IOException}
+	 */
+	@Override
+	public void register(Path dir, ConfigurableWatchService watcher) throws IOException {
+		WatchKey key = dir.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+		List<ConfigurableWatchService> keyListeners = listeners.get(key);
+		if (keyListeners == null) {
+			List<ConfigurableWatchService> newListeners = new CopyOnWriteArrayList<>();
+			keyListeners = listeners.putIfAbsent(key, newListeners);
+			if (keyListeners == null) {
+				keyListeners = newListeners;
+			}
+		}
+		if (!keyListeners.contains(watcher)) {
+			keyListeners.add(watcher);
+		}
+	}
+
+	/**
+	 * Unregisters the specified watcher from the specified key. The key is
+	 * cancelled if no other watcher uses it.
+	 *
+	 * @param key
+	 *            Any key.
+	 * @param watcher
+	 *            Any watcher.
+	 */
+	public void unregister(WatchKey key, ConfigurableWatchService watcher) {
+		List<ConfigurableWatchService> keyListeners = listeners.get(key);
+		if (keyListeners != null && keyListeners.remove(watcher) && keyListeners.isEmpty()) {
+			listeners.remove(key, keyListeners);
+			key.cancel();
+		}
+	}
+
+	@Override
+	public void run() {
+		log.info("Started watch service dispatcher.");
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				long delay = getRemainingDelay();
+				WatchKey key = delay < 0 ? watchService.take() : watchService.poll(delay, TimeUnit.MILLISECONDS);
+
+				if (key != null) {
+					Path dir = (Path) key.watchable();
+					List<WatchEvent<?>> events = key.pollEvents();
+					List<ConfigurableWatchService> keyListeners = listeners.get(key);
+					if (keyListeners != null) {
+						for (ConfigurableWatchService watcher : keyListeners) {
+							try {
+								watcher.processEvents(dir, events);
+							} catch (RuntimeException e) {
+								log.error(MessageFormat.format("Watcher {0} failed to process the events of {1}.", watcher, dir), e);
+							}
+						}
+					}
+					if (!key.reset()) {
+						keyListeners = listeners.remove(key);
+						if (keyListeners != null) {
+							for (ConfigurableWatchService watcher : keyListeners) {
+								try {
+									watcher.directoryInvalidated(dir);
+								} catch (RuntimeException e) {
+									log.error(MessageFormat.format("Watcher {0} failed to forget {1}.", watcher, dir), e);
+								}
+							}
+						}
+					}
+				}
+
+				long now = ConfigurableWatchService.currentTimeMillis();
+				for (ConfigurableWatchService watcher : watchers) {
+					try {
+						watcher.dispatchPendingEvents(now);
+					} catch (RuntimeException e) {
+						log.error(MessageFormat.format("Watcher {0} failed to dispatch its events.", watcher), e);
+					}
+				}
+			}
+		} catch (InterruptedException | ClosedWatchServiceException e) {
+			// do nothing
+		}
+		log.info("Stopped watch service dispatcher.");
+	}
+
+	private long getRemainingDelay() {
+		long now = ConfigurableWatchService.currentTimeMillis();
+		long delay = -1;
+		for (ConfigurableWatchService watcher : watchers) {
+			long watcherDelay;
+			try {
+				watcherDelay = watcher.getRemainingDelay(now);
+			} catch (RuntimeException e) {
+				log.error(MessageFormat.format("Watcher {0} failed to compute its delay.", watcher), e);
+				continue;
+			}
+			if (watcherDelay >= 0 && (delay < 0 || watcherDelay < delay)) {
+				delay = watcherDelay;
+			}
+		}
+		return delay;
+	}
+
+	/**
+	 * @return The number of registered directories.
+	 */
+	public int getKeyCount() {
+		return listeners.size();
+	}
+
+	/**
+	 * Closes the shared watch service, which stops the dispatching thread.
+	 */
+	public void close() {
+		watchers.clear();
+		listeners.clear();
+		try {
+			watchService.close();
+		} catch (IOException e) {
+			log.error(MessageFormat.format("Could not close watch service {0}.", watchService), e);
+		}
+	}
+}
@@ -0,0 +1,365 @@
+package ch.meyerdaniel.osgi.fss.service.intern;
+
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.AclFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class buffers writes of whole files. Writes to the same path within the
+ * delay are coalesced, only the latest content is written. Every write goes to
+ * a temporary file in the same directory, is forced to the disk and then
+ * renamed to the target, so readers never see a partially written file.
+ * Asynchronous writers are notified once their content or a newer one is
+ * written.
+ * 
+ * @author Daniel Meyer
+ * 
+ */
+public class WriteBehindQueue {
+
+	private static final Logger log = LoggerFactory.getLogger(WriteBehindQueue.class);
+
+	private final long delay;
+
+	/**
+	 * The pending content by file, guarded by the map itself.
+	 */
+	private final Map</* Path */Path, PendingWrite> pendingWrites;
+
+	private final ScheduledExecutorService scheduler;
+
+	/**
+	 * @param delay
+	 *            The delay in milliseconds before a write is flushed,
+	 *            <code>0</code> writes immediately in the calling thread.
+	 */
+	public WriteBehindQueue(long delay) {
+		this.delay = delay;
+		pendingWrites = new HashMap<>();
+		scheduler = delay > 0 ? ThreadPools.newSingleThreadScheduledExecutor("fss-write") : null;
+	}
+
+	/**
+	 * Writes the specified content to the specified file. If a delay is
+	 * configured, the content is buffered and a pending write of the same file
+	 * is replaced.
+	 * 
+	 * @param file
+	 *            The target file.
+	 * @param content
+	 *            The complete content of the file.
+	 * @throws IOException
+	 *             If the content is written immediately and an error occurs.
+	 */
+	public void write(Path file, byte[] content) throws IOException {
+		if (scheduler == null) {
+			writeAtomically(file, content);
+			return;
+		}
+		enqueue(file, content, null);
+	}
+
+	/**
+	 * Writes the specified content to the specified file like
+	 * {@link #write(Path, byte[])} and notifies the handler as soon as the
+	 * content or a newer content of the same file is written. Without a delay
+	 * the content is written and the handler is notified in the calling
+	 * thread.
+	 * 
+	 * @param file
+	 *            The target file.
+	 * @param content
+	 *            The complete content of the file.
+	 * @param attachment
+	 *            The object to attach to the notification.
+	 * @param handler
+	 *            The handler for the result.
+	 */
+	public <A> void write(Path file, byte[] content, A attachment, CompletionHandler<Void, ? super A> handler) {
+		Completion<A> completion = new Completion<A>(attachment, handler);
+		if (scheduler == null) {
+			try {
+				writeAtomically(file, content);
+			} catch (IOException e) {
+				completion.failed(e);
+				return;
+			}
+			completion.completed();
+			return;
+		}
+		try {
+			enqueue(file, content, completion);
+		} catch (IOException e) {
+			/* The handler was notified by the flush */
+			log.debug(MessageFormat.format("Could not write file {0}.", file), e);
+		}
+	}
+
+	private void enqueue(final Path file, byte[] content, Completion<?> completion) throws IOException {
+		boolean first;
+		synchronized (pendingWrites) {
+			PendingWrite pending = pendingWrites.get(file);
+			first = pending == null;
+			if (first) {
+				pending = new PendingWrite();
+				pendingWrites.put(file, pending);
+			}
+			pending.content = content;
+			if (completion != null) {
+				pending.completions.add(completion);
+			}
+		}
+		if (first) {
+			try {
+				scheduler.schedule(new Runnable() {
+
+					@Override
+					public void run() {
+						try {
+							flush(file);
+						} catch (IOException e) {
+							log.error(MessageFormat.format("Could not write file {0}.", file), e);
+						}
+					}
+				}, delay, TimeUnit.MILLISECONDS);
+			} catch (RejectedExecutionException e) {
+				flush(file);
+			}
+		}
+	}
+
+	/**
+	 * Writes the pending content of the specified file, if any.
+	 * 
+	 * @param file
+	 *            Any file.
+	 * @throws IOException
+	 *             {@link IOException}
+	 */
+	public void flush(Path file) throws IOException {
+		PendingWrite pending;
+		IOException failure = null;
+		/* Serialize the writes, so an older content can never win the rename */
+		synchronized (this) {
+			synchronized (pendingWrites) {
+				pending = pendingWrites.remove(file);
+			}
+			if (pending == null) {
+				return;
+			}
+			try {
+				writeAtomically(file, pending.content);
+			} catch (IOException e) {
+				failure = e;
+			}
+		}
+		/* Notify outside of the lock, the handlers may write again */
+		for (Completion<?> completion : pending.completions) {
+			if (failure == null) {
+				completion.completed();
+			} else {
+				completion.failed(failure);
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * Writes all pending contents.
+	 * 
+	 * @throws IOException
+	 *             The first error that occurred.
+	 */
+	public void flush() throws IOException {
+		List<Path> files;
+		synchronized (pendingWrites) {
+			files = new ArrayList<>(pendingWrites.keySet());
+		}
+		IOException failure = null;
+		for (Path file : files) {
+			try {
+				flush(file);
+			} catch (IOException e) {
+				if (failure == null) {
+					failure = e;
+				}
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * Writes all pending contents and stops the queue.
+	 */
+	public void close() {
+		try {
+			flush();
+		} catch (IOException e) {
+			log.error("", e);
+		}
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+		}
+	}
+
+	/**
+	 * @return The number of files with pending content.
+	 */
+	public int getPendingCount() {
+		synchronized (pendingWrites) {
+			return pendingWrites.size();
+		}
+	}
+
+	/**
+	 * Writes the specified content to a temporary file, forces it to the disk
+	 * and renames it to the specified file. The temporary file gets the
+	 * permissions, owner and ACL of an existing file. If the file is a
+	 * symbolic link, the link is kept and its target is replaced.
+	 * 
+	 * @param file
+	 *            The target file.
+	 * @param content
+	 *            The complete content of the file.
+	 * @throws IOException
+	 *             {@link IOException}
+	 */
+	public static void writeAtomically(Path file, byte[] content) throws IOException {
+		boolean exists = Files.exists(file);
+		Path target = exists ? file.toRealPath() : file.toAbsolutePath();
+		Path temp = createTempFile(target);
+		boolean moved = false;
+		try {
+			if (exists) {
+				copyAttributes(target, temp);
+			}
+			try (FileChannel channel = FileChannel.open(temp, WRITE)) {
+				ByteBuffer buffer = ByteBuffer.wrap(content);
+				while (buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+				channel.force(true);
+			}
+			try {
+				Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+			}
+			moved = true;
+		} finally {
+			if (!moved) {
+				Files.deleteIfExists(temp);
+			}
+		}
+	}
+
+	/**
+	 * Creates an empty file next to the specified file. In contrast to
+	 * {@link Files#createTempFile} the default permissions of new files are
+	 * used, so a new file is not restricted to its owner.
+	 */
+	private static Path createTempFile(Path file) throws IOException {
+		while (true) {
+			Path temp = file.resolveSibling("." + file.getFileName() + "." + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".tmp");
+			try {
+				return Files.createFile(temp);
+			} catch (FileAlreadyExistsException e) {
+				// try another name
+			}
+		}
+	}
+
+	private static void copyAttributes(Path source, Path target) throws IOException {
+		PosixFileAttributeView sourcePosix = Files.getFileAttributeView(source, PosixFileAttributeView.class);
+		if (sourcePosix != null) {
+			PosixFileAttributes attributes = sourcePosix.readAttributes();
+			PosixFileAttributeView targetPosix = Files.getFileAttributeView(target, PosixFileAttributeView.class);
+			targetPosix.setPermissions(attributes.permissions());
+			try {
+				targetPosix.setGroup(attributes.group());
+				targetPosix.setOwner(attributes.owner());
+			} catch (IOException e) {
+				/* Only privileged users may hand a file to another user */
+				log.debug(MessageFormat.format("Could not keep the owner of {0}.", source), e);
+			}
+		}
+		AclFileAttributeView sourceAcl = Files.getFileAttributeView(source, AclFileAttributeView.class);
+		if (sourceAcl != null) {
+			AclFileAttributeView targetAcl = Files.getFileAttributeView(target, AclFileAttributeView.class);
+			targetAcl.setAcl(sourceAcl.getAcl());
+			if (sourcePosix == null) {
+				try {
+					targetAcl.setOwner(sourceAcl.getOwner());
+				} catch (IOException e) {
+					log.debug(MessageFormat.format("Could not keep the owner of {0}.", source), e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * The latest content of a file and the handlers of all writes it
+	 * replaced.
+	 */
+	private static final class PendingWrite {
+
+		private byte[] content;
+
+		private final List<Completion<?>> completions = new ArrayList<>(1);
+	}
+
+	private static final class Completion<A> {
+
+		private final A attachment;
+
+		private final CompletionHandler<Void, ? super A> handler;
+
+		private Completion(A attachment, CompletionHandler<Void, ? super A> handler) {
+			this.attachment = attachment;
+			this.handler = handler;
+		}
+
+		private void completed() {
+			try {
+				handler.completed(null, attachment);
+			} catch (RuntimeException e) {
+				log.error("Completion handler failed.", e);
+			}
+		}
+
+		private void failed(Throwable exc) {
+			try {
+				handler.failed(exc, attachment);
+			} catch (RuntimeException e) {
+				log.error("Completion handler failed.", e);
+			}
+		}
+	}
+}
@@ -0,0 +1,71 @@
+package ch.meyerdaniel.osgi.fss.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * This class reads the remaining bytes of a buffer, e.g. a memory mapped file,
+ * without copying them into an intermediate buffer first. The position of the
+ * specified buffer is not changed.
+ * 
+ * @author Daniel Meyer
+ */
+public class ByteBufferInputStream extends InputStream {
+
+	private final ByteBuffer buffer;
+
+	/**
+	 * @param buffer
+	 *            The buffer to read from.
+	 */
+	public ByteBufferInputStream(ByteBuffer buffer) {
+		this.buffer = buffer.duplicate();
+	}
+
+	@Override
+	public int read() throws IOException {
+		try {
+			return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+		} catch (InternalError e) {
+			throw truncated(e);
+		}
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if (!buffer.hasRemaining()) {
+			return -1;
+		}
+		int count = Math.min(len, buffer.remaining());
+		try {
+			buffer.get(b, off, count);
+		} catch (InternalError e) {
+			throw truncated(e);
+		}
+		return count;
+	}
+
+	/**
+	 * Accessing a mapped file that was truncated by another process raises an
+	 * {@link InternalError}, which is reported like any other read failure.
+	 */
+	private static IOException truncated(InternalError e) {
+		return new IOException("The mapped file was truncated while being read.", e);
+	}
+
+	@Override
+	public long skip(long n) {
+		int count = (int) Math.max(0, Math.min(n, buffer.remaining()));
+		buffer.position(buffer.position() + count);
+		return count;
+	}
+
+	@Override
+	public int available() {
+		return buffer.remaining();
+	}
+}
@@ -1,7 +1,18 @@
 package ch.meyerdaniel.osgi.fss.util;
 
+import static java.nio.file.StandardOpenOption.READ;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystem;
 import java.nio.file.FileSystems;
 import java.nio.file.FileVisitResult;
@@ -11,10 +22,210 @@ import java.nio.file.Paths;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class JarUtil {
+
+	private static final Logger log = LoggerFactory.getLogger(JarUtil.class);
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Copy buffers that are reused by each extracting thread.
+	 */
+	private static final ThreadLocal<byte[]> BUFFERS = new ThreadLocal<byte[]>() {
+
+		@Override
+		protected byte[] initialValue() {
+			return new byte[BUFFER_SIZE];
+		}
+	};
+
+	private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+	private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+	private static final int END_SIGNATURE = 0x06054b50;
+	private static final int END_SIZE = 22;
+	private static final int MAX_COMMENT_SIZE = 0xFFFF;
+	private static final int STORED = 0;
+	private static final int DEFLATED = 8;
+
+	private static final byte[] MANIFEST_NAME = JarFile.MANIFEST_NAME.getBytes(StandardCharsets.US_ASCII);
+
+	/**
+	 * Reads the manifest of the specified jar. Only the end of the file, the
+	 * central directory and the manifest entry are read into small buffers,
+	 * so the cost does not depend on the size of the jar. The jar is not
+	 * mapped, so it is not locked on Windows after this method returns. Zip64
+	 * archives are read with {@link JarFile}.
+	 * 
+	 * @param jar
+	 *            Any jar.
+	 * @return The manifest or <code>null</code> if the jar has none.
+	 * @throws IOException
+	 *             If the jar cannot be read or is not a zip file.
+	 */
+	public static Manifest readManifest(Path jar) throws IOException {
+		try (FileChannel channel = FileChannel.open(jar, READ)) {
+			long size = channel.size();
+			if (size < END_SIZE) {
+				throw new IOException("Not a zip file " + jar);
+			}
+			int tailLength = (int) Math.min(size, END_SIZE + MAX_COMMENT_SIZE);
+			ByteBuffer tail = read(channel, size - tailLength, tailLength, jar);
+			int end = findEndOfCentralDirectory(tail);
+			if (end < 0) {
+				throw new IOException("Not a zip file " + jar);
+			}
+			int entries = tail.getShort(end + 10) & 0xFFFF;
+			long directorySize = tail.getInt(end + 12) & 0xFFFFFFFFL;
+			long directoryOffset = tail.getInt(end + 16) & 0xFFFFFFFFL;
+			if (entries == 0xFFFF || directorySize == 0xFFFFFFFFL || directoryOffset == 0xFFFFFFFFL) {
+				return readManifestWithJarFile(jar);
+			}
+			if (directoryOffset + directorySize > size) {
+				throw new IOException("Corrupt central directory in " + jar);
+			}
+
+			ByteBuffer directory = read(channel, directoryOffset, (int) directorySize, jar);
+			int position = 0;
+			for (int i = 0; i < entries; i++) {
+				if (position + 46 > directory.limit() || directory.getInt(position) != CENTRAL_HEADER_SIGNATURE) {
+					throw new IOException("Corrupt central directory in " + jar);
+				}
+				int nameLength = directory.getShort(position + 28) & 0xFFFF;
+				int extraLength = directory.getShort(position + 30) & 0xFFFF;
+				int commentLength = directory.getShort(position + 32) & 0xFFFF;
+				if (position + 46 + nameLength > directory.limit()) {
+					throw new IOException("Corrupt central directory in " + jar);
+				}
+				if (isManifest(directory, position + 46, nameLength)) {
+					int method = directory.getShort(position + 10) & 0xFFFF;
+					long compressedSize = directory.getInt(position + 20) & 0xFFFFFFFFL;
+					long uncompressedSize = directory.getInt(position + 24) & 0xFFFFFFFFL;
+					long localOffset = directory.getInt(position + 42) & 0xFFFFFFFFL;
+					if (compressedSize == 0xFFFFFFFFL || uncompressedSize == 0xFFFFFFFFL || localOffset == 0xFFFFFFFFL) {
+						return readManifestWithJarFile(jar);
+					}
+					byte[] content = readEntry(channel, localOffset, method, compressedSize, uncompressedSize, jar);
+					return new Manifest(new ByteArrayInputStream(content));
+				}
+				position += 46 + nameLength + extraLength + commentLength;
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Reads the specified range of the channel with positional reads, so the
+	 * position of the channel is not used.
+	 */
+	private static ByteBuffer read(FileChannel channel, long position, int length, Path jar) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new IOException("Jar " + jar + " changed while being read.");
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	private static int findEndOfCentralDirectory(ByteBuffer tail) {
+		int last = tail.limit() - END_SIZE;
+		for (int i = last; i >= 0; i--) {
+			if (tail.getInt(i) == END_SIGNATURE && i + END_SIZE + (tail.getShort(i + 20) & 0xFFFF) == tail.limit()) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static boolean isManifest(ByteBuffer directory, int position, int nameLength) {
+		if (nameLength != MANIFEST_NAME.length) {
+			return false;
+		}
+		for (int i = 0; i < nameLength; i++) {
+			byte b = directory.get(position + i);
+			if (b != MANIFEST_NAME[i] && Character.toUpperCase((char) b) != MANIFEST_NAME[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static byte[] readEntry(FileChannel channel, long localOffset, int method, long compressedSize, long uncompressedSize, Path jar) throws IOException {
+		long size = channel.size();
+		if (localOffset + 30 > size) {
+			throw new IOException("Corrupt local header in " + jar);
+		}
+		ByteBuffer header = read(channel, localOffset, 30, jar);
+		if (header.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+			throw new IOException("Corrupt local header in " + jar);
+		}
+		long dataOffset = localOffset + 30 + (header.getShort(26) & 0xFFFF) + (header.getShort(28) & 0xFFFF);
+		if (dataOffset + compressedSize > size || uncompressedSize > Integer.MAX_VALUE) {
+			throw new IOException("Truncated manifest in " + jar);
+		}
+		byte[] compressed = read(channel, dataOffset, (int) compressedSize, jar).array();
+
+		if (method == STORED) {
+			return compressed;
+		}
+		if (method != DEFLATED) {
+			throw new IOException("Unsupported compression method " + method + " in " + jar);
+		}
+		Inflater inflater = new Inflater(true);
+		try {
+			inflater.setInput(compressed);
+			byte[] content = new byte[(int) uncompressedSize];
+			int length = 0;
+			while (length < content.length && !inflater.finished()) {
+				int inflated = inflater.inflate(content, length, content.length - length);
+				if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					break;
+				}
+				length += inflated;
+			}
+			if (length != content.length) {
+				throw new IOException("Truncated manifest in " + jar);
+			}
+			return content;
+		} catch (DataFormatException e) {
+			throw new IOException("Corrupt manifest in " + jar, e);
+		} finally {
+			inflater.end();
+		}
+	}
+
+	private static Manifest readManifestWithJarFile(Path jar) throws IOException {
+		try (JarFile jarFile = new JarFile(jar.toFile())) {
+			return jarFile.getManifest();
+		}
+	}
+
 	/**
 	 * Returns a zip file system
 	 * 
@@ -58,7 +269,7 @@ public class JarUtil {
 					final Path dest = zipFileSystem.getPath(root.toString(), src.toString());
 					final Path parent = dest.getParent();
 					if (Files.notExists(parent)) {
-						System.out.printf("Creating directory %s\n", parent);
+						log.debug(MessageFormat.format("Creating directory {0}.", parent));
 						Files.createDirectories(parent);
 					}
 					Files.copy(src, dest, StandardCopyOption.REPLACE_EXISTING);
@@ -76,7 +287,7 @@ public class JarUtil {
 						public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
 							final Path dirToCreate = zipFileSystem.getPath(root.toString(), dir.toString());
 							if (Files.notExists(dirToCreate)) {
-								System.out.printf("Creating directory %s\n", dirToCreate);
+								log.debug(MessageFormat.format("Creating directory {0}.", dirToCreate));
 								Files.createDirectories(dirToCreate);
 							}
 							return FileVisitResult.CONTINUE;
@@ -89,7 +300,9 @@ public class JarUtil {
 
 	/**
 	 * Unzips the specified zip file to the specified destination directory.
-	 * Replaces any files in the destination, if they already exist.
+	 * Replaces any files in the destination, if they already exist. The
+	 * entries are extracted in parallel by one thread per processor, see
+	 * {@link #unzip(Path, Path, ExecutorService)}.
 	 * 
 	 * @param zipFilename
 	 *            the name of the zip file to extract
@@ -99,34 +312,189 @@ public class JarUtil {
 	 *             ...
 	 */
 	public static void unzip(String zipFilename, String destDirname) throws IOException {
-		final Path destDir = Paths.get(destDirname);
-		// if the destination doesn't exist, create it
-		if (Files.notExists(destDir)) {
-			System.out.println(destDir + " does not exist. Creating...");
-			Files.createDirectories(destDir);
+		ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+		try {
+			unzip(Paths.get(zipFilename), Paths.get(destDirname), executor);
+		} finally {
+			executor.shutdown();
 		}
-		try (FileSystem zipFileSystem = createZipFileSystem(zipFilename, false)) {
-			final Path root = zipFileSystem.getPath("/");
-			// walk the zip file tree and copy files to the destination
-			Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
-				@Override
-				public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-					final Path destFile = Paths.get(destDir.toString(), file.toString());
-					System.out.printf("Extracting file %s to %s\n", file, destFile);
-					Files.copy(file, destFile, StandardCopyOption.REPLACE_EXISTING);
-					return FileVisitResult.CONTINUE;
+	}
+
+	/**
+	 * Unzips the specified zip file to the specified destination directory.
+	 * Replaces any files in the destination, if they already exist. The
+	 * directories are created first, then the files are extracted in parallel
+	 * on the specified executor. Entries that would be extracted outside of
+	 * the destination directory are rejected.
+	 * 
+	 * @param zip
+	 *            The zip file to extract.
+	 * @param destDir
+	 *            The directory to unzip to.
+	 * @param executor
+	 *            Extracts the files.
+	 * @throws IOException
+	 *             If the zip cannot be read, an entry cannot be extracted or
+	 *             an entry points outside of the destination directory.
+	 */
+	public static void unzip(Path zip, final Path destDir, ExecutorService executor) throws IOException {
+		long start = System.nanoTime();
+		final Path root = destDir.toAbsolutePath().normalize();
+		Files.createDirectories(root);
+
+		try (final ZipFile zipFile = new ZipFile(zip.toFile())) {
+			List<Callable<Void>> tasks = new ArrayList<>();
+			Enumeration<? extends ZipEntry> entries = zipFile.entries();
+			while (entries.hasMoreElements()) {
+				final ZipEntry entry = entries.nextElement();
+				final Path target = resolveEntry(root, entry.getName());
+				if (entry.isDirectory()) {
+					Files.createDirectories(target);
+					continue;
 				}
+				Path parent = target.getParent();
+				if (Files.notExists(parent)) {
+					log.debug(MessageFormat.format("Creating directory {0}.", parent));
+					Files.createDirectories(parent);
+				}
+				tasks.add(new Callable<Void>() {
 
-				@Override
-				public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
-					final Path dirToCreate = Paths.get(destDir.toString(), dir.toString());
-					if (Files.notExists(dirToCreate)) {
-						System.out.printf("Creating directory %s\n", dirToCreate);
-						Files.createDirectory(dirToCreate);
+					@Override
+					public Void call() throws IOException {
+						log.debug(MessageFormat.format("Extracting file {0} to {1}.", entry.getName(), target));
+						try (InputStream in = zipFile.getInputStream(entry); OutputStream out = Files.newOutputStream(target)) {
+							copy(in, out);
+						}
+						return null;
 					}
-					return FileVisitResult.CONTINUE;
+				});
+			}
+
+			for (Future<Void> future : executor.invokeAll(tasks)) {
+				future.get();
+			}
+			log.info(MessageFormat.format("Extracted {0} files of {1} in {2} ms.", tasks.size(), zip, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while extracting " + zip);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+	}
+
+	/**
+	 * Creates the specified zip file from the specified files and directories.
+	 * An existing zip file is replaced. The entry names are relative to the
+	 * parent of each source, i.e. a file is added by its name and a directory
+	 * with its name and its whole tree, including empty directories. The
+	 * files are streamed with a reusable buffer, the entries are written
+	 * sequentially since a zip stream cannot be written concurrently.
+	 * 
+	 * @param zip
+	 *            The zip file to create.
+	 * @param compressionLevel
+	 *            The compression level from
+	 *            {@link Deflater#NO_COMPRESSION} to
+	 *            {@link Deflater#BEST_COMPRESSION} or
+	 *            {@link Deflater#DEFAULT_COMPRESSION}.
+	 * @param sources
+	 *            The files and directories to add.
+	 * @throws IOException
+	 *             If a file cannot be read, two sources share an entry name or
+	 *             the zip cannot be written.
+	 */
+	public static void zip(Path zip, int compressionLevel, Path... sources) throws IOException {
+		long start = System.nanoTime();
+		final Map</* Entry name */String, Path> entries = new LinkedHashMap<>();
+		for (Path source : sources) {
+			Path absolute = source.toAbsolutePath().normalize();
+			final Path base = absolute.getParent() == null ? absolute : absolute.getParent();
+			if (Files.isDirectory(absolute)) {
+				Files.walkFileTree(absolute, new SimpleFileVisitor<Path>() {
+					@Override
+					public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+						String name = getEntryName(base, dir);
+						if (!name.isEmpty()) {
+							addEntry(entries, name + "/", dir);
+						}
+						return FileVisitResult.CONTINUE;
+					}
+
+					@Override
+					public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+						addEntry(entries, getEntryName(base, file), file);
+						return FileVisitResult.CONTINUE;
+					}
+				});
+			} else {
+				addEntry(entries, getEntryName(base, absolute), absolute);
+			}
+		}
+
+		int files = 0;
+		try (ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(zip), BUFFER_SIZE))) {
+			out.setLevel(compressionLevel);
+			for (Map.Entry<String, Path> file : entries.entrySet()) {
+				String name = file.getKey();
+				log.debug(MessageFormat.format("Adding entry {0}.", name));
+				ZipEntry entry = new ZipEntry(name);
+				entry.setTime(Files.getLastModifiedTime(file.getValue()).toMillis());
+				out.putNextEntry(entry);
+				if (!entry.isDirectory()) {
+					try (InputStream in = Files.newInputStream(file.getValue())) {
+						copy(in, out);
+					}
+					files++;
 				}
-			});
+				out.closeEntry();
+			}
+		}
+		log.info(MessageFormat.format("Created {0} with {1} files in {2} ms.", zip, files, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+	}
+
+	/**
+	 * @return The path of the specified file relative to the specified base
+	 *         with <code>/</code> as separator.
+	 * @throws IOException
+	 *             If the file is not located below the base.
+	 */
+	private static String getEntryName(Path base, Path file) throws IOException {
+		StringBuilder name = new StringBuilder();
+		for (Path element : base.relativize(file)) {
+			if (element.toString().equals("..")) {
+				throw new IOException("File " + file + " is outside of " + base);
+			}
+			if (name.length() > 0) {
+				name.append('/');
+			}
+			name.append(element.toString());
+		}
+		return name.toString();
+	}
+
+	private static void addEntry(Map<String, Path> entries, String name, Path file) throws IOException {
+		Path duplicate = entries.put(name, file);
+		if (duplicate != null) {
+			throw new IOException("Zip entry " + name + " is provided by " + duplicate + " and " + file);
+		}
+	}
+
+	private static Path resolveEntry(Path root, String name) throws IOException {
+		Path target = root.resolve(name).normalize();
+		if (!target.startsWith(root)) {
+			throw new IOException("Zip entry " + name + " is outside of " + root);
+		}
+		return target;
+	}
+
+	private static void copy(InputStream in, OutputStream out) throws IOException {
+		byte[] buffer = BUFFERS.get();
+		int read;
+		while ((read = in.read(buffer)) != -1) {
+			out.write(buffer, 0, read);
 		}
 	}
 }
@@ -0,0 +1,55 @@
+package ch.meyerdaniel.osgi.fss.util;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * This class keeps idle instances of objects that are expensive to create and
+ * not thread safe, e.g. parsers. An instance is used by one thread at a time
+ * between {@link #poll()} and {@link #release(Object)}. In contrast to a
+ * {@link ThreadLocal} the instances are owned by the pool, so they do not
+ * outlive it in threads of other bundles.
+ * 
+ * @author Daniel Meyer
+ * 
+ * @param <T>
+ *            The type of the pooled objects.
+ */
+public final class ObjectPool<T> {
+
+	private final ArrayBlockingQueue<T> idle;
+
+	/**
+	 * @param capacity
+	 *            The maximum number of idle instances, further released
+	 *            instances are dropped.
+	 */
+	public ObjectPool(int capacity) {
+		idle = new ArrayBlockingQueue<>(capacity);
+	}
+
+	/**
+	 * @return An idle instance or <code>null</code> if the caller has to
+	 *         create a new one.
+	 */
+	public T poll() {
+		return idle.poll();
+	}
+
+	/**
+	 * Returns an instance to this pool. The instance must not be used by the
+	 * caller afterwards.
+	 * 
+	 * @param instance
+	 *            An instance that was reset to its initial state.
+	 */
+	public void release(T instance) {
+		idle.offer(instance);
+	}
+
+	/**
+	 * Drops all idle instances.
+	 */
+	public void clear() {
+		idle.clear();
+	}
+}
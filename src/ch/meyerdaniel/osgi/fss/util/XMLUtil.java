@@ -1,5 +1,8 @@
 package ch.meyerdaniel.osgi.fss.util;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathExpression;
@@ -12,15 +15,56 @@ import org.w3c.dom.NodeList;
 
 public class XMLUtil {
 
+	private static final int MAX_CACHED_EXPRESSIONS = 64;
+
+	/**
+	 * Neither {@link XPath} nor {@link XPathExpression} are thread safe, so
+	 * each call borrows an evaluator with its own compiled expressions. The
+	 * pool is owned by this bundle and dropped by {@link #clear()}.
+	 */
+	private static final ObjectPool<Evaluator> evaluators = new ObjectPool<>(2 * Runtime.getRuntime().availableProcessors());
+
+	/**
+	 * Compiles the specified expression. The returned expression belongs to
+	 * the caller and must not be shared with other threads, callers that
+	 * evaluate an expression repeatedly should keep it.
+	 * 
+	 * @param xPathAsString
+	 *            Any XPath expression.
+	 * @return The compiled expression.
+	 * @throws XPathExpressionException
+	 *             If the expression cannot be compiled.
+	 */
+	public static XPathExpression compile(String xPathAsString) throws XPathExpressionException {
+		Evaluator evaluator = borrow();
+		try {
+			return evaluator.xpath.compile(xPathAsString);
+		} finally {
+			evaluators.release(evaluator);
+		}
+	}
+
+	/**
+	 * Drops the pooled evaluators and their compiled expressions.
+	 */
+	public static void clear() {
+		evaluators.clear();
+	}
+
 	public static NodeList getNodeList(Document doc, String xPathAsString) throws XPathExpressionException {
-		XPath xpath = XPathFactory.newInstance().newXPath();
-		XPathExpression expr = xpath.compile(xPathAsString);
-		return (NodeList) expr.evaluate(doc, XPathConstants.NODESET);
+		return getNodeList((Node) doc, xPathAsString);
 	}
 
 	public static NodeList getNodeList(Node node, String xPathAsString) throws XPathExpressionException {
-		XPath xpath = XPathFactory.newInstance().newXPath();
-		XPathExpression expr = xpath.compile(xPathAsString);
+		Evaluator evaluator = borrow();
+		try {
+			return getNodeList(node, evaluator.compile(xPathAsString));
+		} finally {
+			evaluators.release(evaluator);
+		}
+	}
+
+	public static NodeList getNodeList(Node node, XPathExpression expr) throws XPathExpressionException {
 		return (NodeList) expr.evaluate(node, XPathConstants.NODESET);
 	}
 
@@ -32,7 +76,14 @@ public class XMLUtil {
 	}
 
 	public static Node getUniqueNode(Node node, String xPathAsString) throws XPathExpressionException {
-		NodeList nodeList = getNodeList(node, xPathAsString);
+		return getFirst(getNodeList(node, xPathAsString));
+	}
+
+	public static Node getUniqueNode(Node node, XPathExpression expr) throws XPathExpressionException {
+		return getFirst(getNodeList(node, expr));
+	}
+
+	private static Node getFirst(NodeList nodeList) {
 		return nodeList == null || nodeList.getLength() == 0 ? null : nodeList.item(0);
 	}
 
@@ -42,4 +93,37 @@ public class XMLUtil {
 		}
 		return node.getTextContent();
 	}
+
+	private static Evaluator borrow() {
+		Evaluator evaluator = evaluators.poll();
+		return evaluator == null ? new Evaluator() : evaluator;
+	}
+
+	/**
+	 * An {@link XPath} with its recently compiled expressions, which is used by
+	 * one thread at a time.
+	 */
+	private static final class Evaluator {
+
+		private final XPath xpath = XPathFactory.newInstance().newXPath();
+
+		private final Map<String, XPathExpression> expressions = new LinkedHashMap<String, XPathExpression>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, XPathExpression> eldest) {
+				return size() > MAX_CACHED_EXPRESSIONS;
+			}
+		};
+
+		private XPathExpression compile(String xPathAsString) throws XPathExpressionException {
+			XPathExpression expr = expressions.get(xPathAsString);
+			if (expr == null) {
+				expr = xpath.compile(xPathAsString);
+				expressions.put(xPathAsString, expr);
+			}
+			return expr;
+		}
+	}
 }
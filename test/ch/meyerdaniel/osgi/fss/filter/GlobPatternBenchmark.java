@@ -0,0 +1,129 @@
+package ch.meyerdaniel.osgi.fss.filter;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashSet;
+
+import ch.meyerdaniel.osgi.fss.api.FileFilter;
+
+/**
+ * Compares the {@link DefaultFileFilter} based on {@link GlobPattern} with the
+ * former extension based filter by matching one million paths. Both filters
+ * must agree on every path, since the legacy patterns are a subset of the glob
+ * syntax.
+ * 
+ * <p>
+ * Run with <code>java ch.meyerdaniel.osgi.fss.filter.GlobPatternBenchmark</code>.
+ * 
+ * @author Daniel Meyer
+ */
+public class GlobPatternBenchmark {
+
+	private static final int PATHS = 1000000;
+	private static final int ROUNDS = 5;
+
+	private static final String[] PATTERNS = { "**/*.cfg", "**/*.xml", "**/*.jar", "*.properties" };
+	private static final String[] EXTENSIONS = { "cfg", "xml", "jar", "properties", "txt", "log", "class", "bak" };
+
+	public static void main(String[] args) {
+		Path root = Paths.get("/opt/osgi/watched").toAbsolutePath();
+		Path[] paths = createPaths(root);
+
+		DefaultFileFilter glob = new DefaultFileFilter();
+		LegacyFileFilter legacy = new LegacyFileFilter();
+		for (String pattern : PATTERNS) {
+			glob.addFilePattern(pattern);
+			legacy.addFilePattern(pattern);
+		}
+		glob.setRootPath(root);
+		legacy.setRootPath(root);
+
+		for (Path path : paths) {
+			if (glob.accept(path) != legacy.accept(path)) {
+				throw new IllegalStateException("Filters disagree on " + path);
+			}
+		}
+
+		for (int round = 1; round <= ROUNDS; round++) {
+			long legacyNanos = run(legacy, paths);
+			long globNanos = run(glob, paths);
+			System.out.println(String.format("Round %d: legacy %.1f ns/path, glob %.1f ns/path", round, (double) legacyNanos / paths.length, (double) globNanos / paths.length));
+		}
+	}
+
+	private static Path[] createPaths(Path root) {
+		Path[] paths = new Path[PATHS];
+		for (int i = 0; i < paths.length; i++) {
+			Path dir = root;
+			for (int depth = 0; depth < i % 4; depth++) {
+				dir = dir.resolve("dir" + (i / 7 + depth) % 32);
+			}
+			paths[i] = dir.resolve("file" + i + "." + EXTENSIONS[i % EXTENSIONS.length]);
+		}
+		return paths;
+	}
+
+	private static long run(FileFilter filter, Path[] paths) {
+		int accepted = 0;
+		long start = System.nanoTime();
+		for (Path path : paths) {
+			if (filter.accept(path)) {
+				accepted++;
+			}
+		}
+		long nanos = System.nanoTime() - start;
+		if (accepted == 0) {
+			throw new IllegalStateException("No path accepted.");
+		}
+		return nanos;
+	}
+
+	/**
+	 * The extension based filter that was replaced by {@link GlobPattern}.
+	 */
+	private static final class LegacyFileFilter implements FileFilter {
+
+		private final HashSet<String> recursiveFilePatterns = new HashSet<>();
+		private final HashSet<String> nonRecursiveFilePatterns = new HashSet<>();
+		private Path rootPath;
+
+		@Override
+		public boolean accept(Path file) {
+			int lastIndex = file.getFileName().toString().lastIndexOf(".");
+			if (lastIndex != -1) {
+				String extension = file.getFileName().toString().substring(lastIndex + 1);
+				if (recursiveFilePatterns.contains("*") || recursiveFilePatterns.contains(extension)) {
+					return true;
+				} else if (file.getParent().equals(rootPath)) {
+					return nonRecursiveFilePatterns.contains("*") || nonRecursiveFilePatterns.contains(extension);
+				}
+			}
+			return false;
+		}
+
+		@Override
+		public void addFilePattern(String filePattern) {
+			if (filePattern.startsWith("**/*.")) {
+				if (filePattern.equals("**/*.*")) {
+					recursiveFilePatterns.clear();
+				}
+				if (!recursiveFilePatterns.contains("*.*")) {
+					recursiveFilePatterns.add(filePattern.substring(5));
+				}
+			} else if (filePattern.startsWith("*.")) {
+				if (filePattern.equals("*.*")) {
+					nonRecursiveFilePatterns.clear();
+				}
+				if (!nonRecursiveFilePatterns.contains("*.*")) {
+					nonRecursiveFilePatterns.add(filePattern.substring(2));
+				}
+			}
+			nonRecursiveFilePatterns.removeAll(recursiveFilePatterns);
+		}
+
+		@Override
+		public void setRootPath(Path rootPath) {
+			this.rootPath = rootPath;
+		}
+	}
+}
@@ -0,0 +1,152 @@
+package ch.meyerdaniel.osgi.fss.filter;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the syntax of {@link GlobPattern}.
+ * 
+ * @author Daniel Meyer
+ */
+public class GlobPatternTest extends TestCase {
+
+	public void testLiteral() {
+		GlobPattern pattern = GlobPattern.compile("conf/app.cfg");
+		assertTrue(pattern.matches("conf/app.cfg"));
+		assertFalse(pattern.matches("conf/app.cf"));
+		assertFalse(pattern.matches("conf/app.cfgx"));
+		assertFalse(pattern.matches("other/conf/app.cfg"));
+		/* The file is located in a sub directory */
+		assertTrue(pattern.isRecursive());
+		assertFalse(GlobPattern.compile("app.cfg").isRecursive());
+	}
+
+	public void testStarStaysWithinDirectory() {
+		GlobPattern pattern = GlobPattern.compile("*.cfg");
+		assertTrue(pattern.matches("app.cfg"));
+		assertTrue(pattern.matches(".cfg"));
+		assertFalse(pattern.matches("conf/app.cfg"));
+		assertFalse(pattern.isRecursive());
+	}
+
+	public void testQuestionMark() {
+		GlobPattern pattern = GlobPattern.compile("app?.cfg");
+		assertTrue(pattern.matches("app1.cfg"));
+		assertFalse(pattern.matches("app.cfg"));
+		assertFalse(pattern.matches("app12.cfg"));
+		assertFalse(pattern.matches("app/.cfg"));
+	}
+
+	public void testGlobStarDirectoriesMatchesZeroOrMoreDirectories() {
+		GlobPattern pattern = GlobPattern.compile("**/*.cfg");
+		assertTrue(pattern.matches("app.cfg"));
+		assertTrue(pattern.matches("conf/app.cfg"));
+		assertTrue(pattern.matches("conf/a/b/app.cfg"));
+		assertFalse(pattern.matches("conf/app.xml"));
+		assertTrue(pattern.isRecursive());
+	}
+
+	public void testGlobStarDirectoriesInTheMiddle() {
+		GlobPattern pattern = GlobPattern.compile("conf/**/app.cfg");
+		assertTrue(pattern.matches("conf/app.cfg"));
+		assertTrue(pattern.matches("conf/a/app.cfg"));
+		assertTrue(pattern.matches("conf/a/b/app.cfg"));
+		assertFalse(pattern.matches("other/app.cfg"));
+		assertFalse(pattern.matches("confapp.cfg"));
+	}
+
+	public void testGlobStarCrossesDirectories() {
+		GlobPattern pattern = GlobPattern.compile("conf**.cfg");
+		assertTrue(pattern.matches("conf.cfg"));
+		assertTrue(pattern.matches("conf/a/app.cfg"));
+		assertTrue(pattern.isRecursive());
+	}
+
+	public void testBraces() {
+		GlobPattern pattern = GlobPattern.compile("*.{cfg,properties}");
+		assertTrue(pattern.matches("app.cfg"));
+		assertTrue(pattern.matches("app.properties"));
+		assertFalse(pattern.matches("app.xml"));
+		assertFalse(pattern.matches("app.{cfg,properties}"));
+	}
+
+	public void testNestedBraces() {
+		GlobPattern pattern = GlobPattern.compile("{a,b{c,d}}.txt");
+		assertTrue(pattern.matches("a.txt"));
+		assertTrue(pattern.matches("bc.txt"));
+		assertTrue(pattern.matches("bd.txt"));
+		assertFalse(pattern.matches("b.txt"));
+		assertFalse(pattern.matches("ac.txt"));
+	}
+
+	public void testBracesWithGlobStar() {
+		GlobPattern pattern = GlobPattern.compile("{conf,etc}/**/*.cfg");
+		assertTrue(pattern.matches("conf/app.cfg"));
+		assertTrue(pattern.matches("etc/a/app.cfg"));
+		assertFalse(pattern.matches("var/app.cfg"));
+		assertTrue(pattern.isRecursive());
+	}
+
+	public void testClass() {
+		GlobPattern pattern = GlobPattern.compile("app[abc].cfg");
+		assertTrue(pattern.matches("appa.cfg"));
+		assertTrue(pattern.matches("appc.cfg"));
+		assertFalse(pattern.matches("appd.cfg"));
+		assertFalse(pattern.matches("app.cfg"));
+	}
+
+	public void testClassRange() {
+		GlobPattern pattern = GlobPattern.compile("app[0-9a-f].cfg");
+		assertTrue(pattern.matches("app0.cfg"));
+		assertTrue(pattern.matches("appf.cfg"));
+		assertFalse(pattern.matches("appg.cfg"));
+	}
+
+	public void testNegatedClass() {
+		GlobPattern pattern = GlobPattern.compile("app[!0-9].cfg");
+		assertTrue(pattern.matches("appx.cfg"));
+		assertFalse(pattern.matches("app5.cfg"));
+		assertFalse(pattern.matches("app/.cfg"));
+	}
+
+	public void testEscapes() {
+		GlobPattern star = GlobPattern.compile("\\*.cfg");
+		assertTrue(star.matches("*.cfg"));
+		assertFalse(star.matches("app.cfg"));
+
+		GlobPattern brace = GlobPattern.compile("app\\{1,2\\}.cfg");
+		assertTrue(brace.matches("app{1,2}.cfg"));
+		assertFalse(brace.matches("app1.cfg"));
+
+		GlobPattern bracket = GlobPattern.compile("app\\[1\\].cfg");
+		assertTrue(bracket.matches("app[1].cfg"));
+		assertFalse(bracket.matches("app1.cfg"));
+	}
+
+	public void testRegion() {
+		GlobPattern pattern = GlobPattern.compile("**/*.cfg");
+		String path = "/opt/root/conf/app.cfg";
+		assertTrue(pattern.matches(path, "/opt/root/".length(), path.length()));
+		assertFalse(pattern.matches(path, "/opt/root/".length(), path.length() - 1));
+	}
+
+	public void testMissingBrace() {
+		assertMalformed("*.{cfg,properties");
+	}
+
+	public void testMissingBracket() {
+		assertMalformed("app[abc.cfg");
+	}
+
+	public void testDanglingEscape() {
+		assertMalformed("app.cfg\\");
+	}
+
+	private static void assertMalformed(String glob) {
+		try {
+			GlobPattern.compile(glob);
+			fail("Pattern " + glob + " should be rejected.");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+}
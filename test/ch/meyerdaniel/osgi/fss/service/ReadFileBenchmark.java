@@ -0,0 +1,97 @@
+package ch.meyerdaniel.osgi.fss.service;
+
+import static java.nio.file.StandardOpenOption.READ;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import ch.meyerdaniel.osgi.fss.util.ByteBufferInputStream;
+
+/**
+ * Compares {@link FileServiceImpl#readFile(Path)} with the former stream path,
+ * a {@link FileChannel} wrapped by {@link Channels#newInputStream}, for files
+ * from 1 KB to 100 MB. Both paths are consumed like the parsers do, through
+ * an {@link InputStream} with an 8 KB buffer.
+ * 
+ * <p>
+ * Run with <code>java ch.meyerdaniel.osgi.fss.service.ReadFileBenchmark</code>.
+ * 
+ * @author Daniel Meyer
+ */
+public class ReadFileBenchmark {
+
+	private static final int[] SIZES = { 1024, 16 * 1024, 64 * 1024, 256 * 1024, 1024 * 1024, 10 * 1024 * 1024, 100 * 1024 * 1024 };
+
+	/**
+	 * Each measurement reads about this many bytes.
+	 */
+	private static final long BYTES_PER_ROUND = 512L * 1024 * 1024;
+
+	private static final int ROUNDS = 3;
+
+	public static void main(String[] args) throws IOException {
+		FileServiceImpl fileService = new FileServiceImpl();
+		Path dir = Files.createTempDirectory("fss-read");
+		try {
+			for (int size : SIZES) {
+				Path file = createFile(dir, size);
+				int iterations = (int) Math.max(1, BYTES_PER_ROUND / size);
+				for (int round = 1; round <= ROUNDS; round++) {
+					long streamNanos = readWithStream(file, iterations);
+					long bufferNanos = readWithFileService(fileService, file, iterations);
+					System.out.println(String.format("%9d bytes, round %d: stream %8.1f MB/s, readFile %8.1f MB/s", size, round, throughput(size, iterations, streamNanos),
+							throughput(size, iterations, bufferNanos)));
+				}
+				Files.delete(file);
+			}
+		} finally {
+			Files.delete(dir);
+			fileService.shutdown();
+		}
+	}
+
+	private static Path createFile(Path dir, int size) throws IOException {
+		byte[] content = new byte[size];
+		new Random(size).nextBytes(content);
+		return Files.write(dir.resolve(size + ".bin"), content);
+	}
+
+	private static long readWithStream(Path file, int iterations) throws IOException {
+		long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			try (InputStream is = Channels.newInputStream(FileChannel.open(file, READ))) {
+				consume(is);
+			}
+		}
+		return System.nanoTime() - start;
+	}
+
+	private static long readWithFileService(FileServiceImpl fileService, Path file, int iterations) throws IOException {
+		long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			try (InputStream is = new ByteBufferInputStream(fileService.readFile(file))) {
+				consume(is);
+			}
+		}
+		return System.nanoTime() - start;
+	}
+
+	private static long consume(InputStream is) throws IOException {
+		byte[] buffer = new byte[8192];
+		long total = 0;
+		int count;
+		while ((count = is.read(buffer)) != -1) {
+			total += count;
+		}
+		return total;
+	}
+
+	private static double throughput(int size, int iterations, long nanos) {
+		return (double) size * iterations / (1024 * 1024) / (nanos / 1e9);
+	}
+}
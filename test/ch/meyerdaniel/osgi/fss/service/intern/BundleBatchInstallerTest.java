@@ -0,0 +1,39 @@
+package ch.meyerdaniel.osgi.fss.service.intern;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the parsing of manifest headers by {@link BundleBatchInstaller}.
+ * 
+ * @author Daniel Meyer
+ */
+public class BundleBatchInstallerTest extends TestCase {
+
+	public void testNamesOfEmptyHeader() {
+		assertEquals(Collections.emptyList(), BundleBatchInstaller.getNames(null));
+		assertEquals(Collections.emptyList(), BundleBatchInstaller.getNames(" "));
+	}
+
+	public void testNamesOfClauses() {
+		assertEquals(Arrays.asList("a", "b.c"), BundleBatchInstaller.getNames("a, b.c"));
+	}
+
+	public void testNamesIgnoreAttributesAndDirectives() {
+		assertEquals(Arrays.asList("a", "b"), BundleBatchInstaller.getNames("a;version=\"[1,2)\",b;resolution:=optional"));
+	}
+
+	public void testNamesOfMultiNameClause() {
+		assertEquals(Arrays.asList("a", "b", "c"), BundleBatchInstaller.getNames("a;b;version=1,c"));
+	}
+
+	public void testNamesAfterParameterAreIgnored() {
+		assertEquals(Arrays.asList("a", "c"), BundleBatchInstaller.getNames("a;version=1;b,c"));
+	}
+
+	public void testQuotedSeparators() {
+		assertEquals(Arrays.asList("a", "b"), BundleBatchInstaller.getNames("a;uses:=\"x,y;z\",b"));
+	}
+}
@@ -0,0 +1,186 @@
+package ch.meyerdaniel.osgi.fss.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the creation and extraction of zip files and the reading of manifests
+ * by {@link JarUtil}.
+ * 
+ * @author Daniel Meyer
+ */
+public class JarUtilTest extends TestCase {
+
+	private Path dir;
+
+	@Override
+	protected void setUp() throws IOException {
+		dir = Files.createTempDirectory("fss-jarutil");
+	}
+
+	@Override
+	protected void tearDown() throws IOException {
+		Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory(Path directory, IOException e) throws IOException {
+				Files.delete(directory);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	public void testEntryNamesAreRelativeToTheSources() throws IOException {
+		Path conf = Files.createDirectories(dir.resolve("src/conf"));
+		write(conf.resolve("app.cfg"), "a=1");
+		Files.createDirectories(conf.resolve("empty"));
+		Path readme = write(dir.resolve("src/readme.txt"), "readme");
+
+		Path zip = dir.resolve("out.zip");
+		JarUtil.zip(zip, Deflater.DEFAULT_COMPRESSION, conf.resolve("../conf"), readme);
+
+		assertEquals(Arrays.asList("conf/", "conf/app.cfg", "conf/empty/", "readme.txt"), getEntryNames(zip));
+	}
+
+	public void testRoundTripKeepsEmptyDirectories() throws IOException {
+		Path conf = Files.createDirectories(dir.resolve("conf"));
+		write(conf.resolve("sub/app.cfg"), "a=1");
+		Files.createDirectories(conf.resolve("empty"));
+
+		Path zip = dir.resolve("out.zip");
+		JarUtil.zip(zip, Deflater.BEST_SPEED, conf);
+		Path target = dir.resolve("target");
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			JarUtil.unzip(zip, target, executor);
+		} finally {
+			executor.shutdown();
+		}
+
+		assertEquals("a=1", new String(Files.readAllBytes(target.resolve("conf/sub/app.cfg")), StandardCharsets.UTF_8));
+		assertTrue(Files.isDirectory(target.resolve("conf/empty")));
+	}
+
+	public void testDuplicateEntryNamesAreRejected() throws IOException {
+		Path first = write(dir.resolve("a/app.cfg"), "a=1");
+		Path second = write(dir.resolve("b/app.cfg"), "a=2");
+		try {
+			JarUtil.zip(dir.resolve("out.zip"), Deflater.DEFAULT_COMPRESSION, first, second);
+			fail("Duplicate entry names should be rejected.");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	public void testReadDeflatedManifest() throws IOException {
+		Path jar = createJar(dir.resolve("deflated.jar"), ZipEntry.DEFLATED, "A comment");
+
+		Manifest manifest = JarUtil.readManifest(jar);
+
+		assertEquals("test.bundle", manifest.getMainAttributes().getValue("Bundle-SymbolicName"));
+	}
+
+	public void testReadStoredManifest() throws IOException {
+		Path jar = createJar(dir.resolve("stored.jar"), ZipEntry.STORED, null);
+
+		Manifest manifest = JarUtil.readManifest(jar);
+
+		assertEquals("test.bundle", manifest.getMainAttributes().getValue("Bundle-SymbolicName"));
+	}
+
+	public void testReadMissingManifest() throws IOException {
+		Path conf = write(dir.resolve("conf/app.cfg"), "a=1");
+		Path jar = dir.resolve("plain.jar");
+		JarUtil.zip(jar, Deflater.DEFAULT_COMPRESSION, conf);
+
+		assertNull(JarUtil.readManifest(jar));
+	}
+
+	public void testReadManifestOfInvalidJar() throws IOException {
+		Path jar = write(dir.resolve("invalid.jar"), "This is not a zip file, but long enough for an end record.");
+		try {
+			JarUtil.readManifest(jar);
+			fail("An invalid jar should be rejected.");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	private static Path createJar(Path jar, int method, String comment) throws IOException {
+		Manifest manifest = new Manifest();
+		manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+		manifest.getMainAttributes().putValue("Bundle-SymbolicName", "test.bundle");
+		try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(jar))) {
+			putEntry(out, "META-INF/", new byte[0], method);
+			putEntry(out, "readme.txt", "readme".getBytes(StandardCharsets.UTF_8), method);
+			ByteArrayOutputStream content = new ByteArrayOutputStream();
+			manifest.write(content);
+			putEntry(out, JarFile.MANIFEST_NAME, content.toByteArray(), method);
+			if (comment != null) {
+				out.setComment(comment);
+			}
+		}
+		return jar;
+	}
+
+	private static void putEntry(ZipOutputStream out, String name, byte[] content, int method) throws IOException {
+		ZipEntry entry = new ZipEntry(name);
+		entry.setMethod(method);
+		if (method == ZipEntry.STORED) {
+			CRC32 crc = new CRC32();
+			crc.update(content);
+			entry.setSize(content.length);
+			entry.setCompressedSize(content.length);
+			entry.setCrc(crc.getValue());
+		}
+		out.putNextEntry(entry);
+		out.write(content);
+		out.closeEntry();
+	}
+
+	private static Path write(Path file, String content) throws IOException {
+		Files.createDirectories(file.getParent());
+		return Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static List<String> getEntryNames(Path zip) throws IOException {
+		List<String> names = new ArrayList<>();
+		try (ZipFile zipFile = new ZipFile(zip.toFile())) {
+			Enumeration<? extends ZipEntry> entries = zipFile.entries();
+			while (entries.hasMoreElements()) {
+				names.add(entries.nextElement().getName());
+			}
+		}
+		Collections.sort(names);
+		return names;
+	}
+}